@@ -11,7 +11,7 @@ echo
 echo Compiling ...
 
  # the last . must not forget
-javac -d bin -cp "lib/jME3-core.jar:lib/jME3-effects.jar:lib/jME3-lwjgl.jar:lib/lwjgl.jar:lib/jME3-desktop.jar:lib/jME3-lwjgl-natives.jar:lib/jME3-plugins.jar:." src/chess/*.java src/utils/*.java src/control/*.java
+javac -d bin -cp "lib/jME3-core.jar:lib/jME3-effects.jar:lib/jME3-lwjgl.jar:lib/lwjgl.jar:lib/jME3-desktop.jar:lib/jME3-lwjgl-natives.jar:lib/jME3-plugins.jar:." src/chess/*.java src/excalibur/*.java src/utils/*.java src/control/*.java
 
 echo DONE
 echo
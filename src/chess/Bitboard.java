@@ -0,0 +1,196 @@
+package chess;
+
+import static chess.Position.*;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Static bitboard helpers and precomputed attack tables.
+ * Square 0 is a1, square 7 is h1, square 63 is h8 (same as Util.toSq)
+ */
+public final class Bitboard
+{
+	private Bitboard() {}
+
+	/* File and rank masks */
+	public static final long FILE_A = 0x0101010101010101L,
+			FILE_H = FILE_A << 7,
+			RANK_1 = 0xFFL,
+			RANK_2 = RANK_1 << 8,
+			RANK_3 = RANK_1 << 16,
+			RANK_4 = RANK_1 << 24,
+			RANK_5 = RANK_1 << 32,
+			RANK_6 = RANK_1 << 40,
+			RANK_7 = RANK_1 << 48,
+			RANK_8 = RANK_1 << 56;
+
+	public static final long FILES[] = new long[FILE_N];
+	public static final long RANKS[] = new long[RANK_N];
+
+	/* Leaper attack tables */
+	public static final long KNIGHT_ATTACKS[] = new long[SQ_N];
+	public static final long KING_ATTACKS[] = new long[SQ_N];
+	// PAWN_ATTACKS[side][sq]: squares attacked by a pawn of that side on sq
+	public static final long PAWN_ATTACKS[][] = new long[SIDE_N][SQ_N];
+
+	/* Slider rays, one per direction */
+	// N, NE, E, NW point to higher squares; S, SW, W, SE to lower ones
+	static final int RAY_N = 0, RAY_NE = 1, RAY_E = 2, RAY_NW = 3,
+			RAY_S = 4, RAY_SW = 5, RAY_W = 6, RAY_SE = 7,
+			DIR_N = 8;
+	private static final int DIR_FILE[] = {0, 1, 1, -1, 0, -1, -1, 1};
+	private static final int DIR_RANK[] = {1, 1, 0, 1, -1, -1, 0, -1};
+	static final long RAYS[][] = new long[DIR_N][SQ_N];
+
+	// BETWEEN[a][b]: squares strictly between two aligned squares, 0 if not aligned
+	public static final long BETWEEN[][] = new long[SQ_N][SQ_N];
+	// LINE[a][b]: the whole line through two aligned squares, 0 if not aligned
+	public static final long LINE[][] = new long[SQ_N][SQ_N];
+
+	static
+	{
+		for (int i = 0; i < FILE_N; i++)
+		{
+			FILES[i] = FILE_A << i;
+			RANKS[i] = RANK_1 << (i << 3);
+		}
+
+		final int knightDx[] = {1, 2, 2, 1, -1, -2, -2, -1};
+		final int knightDy[] = {2, 1, -1, -2, -2, -1, 1, 2};
+
+		for (int sq = 0; sq < SQ_N; sq++)
+		{
+			int file = file(sq), rank = rank(sq);
+			for (int i = 0; i < 8; i++)
+			{
+				KNIGHT_ATTACKS[sq] |= bitAt(file + knightDx[i], rank + knightDy[i]);
+				KING_ATTACKS[sq] |= bitAt(file + DIR_FILE[i], rank + DIR_RANK[i]);
+			}
+			PAWN_ATTACKS[W][sq] = bitAt(file - 1, rank + 1) | bitAt(file + 1, rank + 1);
+			PAWN_ATTACKS[B][sq] = bitAt(file - 1, rank - 1) | bitAt(file + 1, rank - 1);
+
+			for (int dir = 0; dir < DIR_N; dir++)
+			{
+				int f = file + DIR_FILE[dir], r = rank + DIR_RANK[dir];
+				while (onBoard(f, r))
+				{
+					RAYS[dir][sq] |= bit(toSq(f, r));
+					f += DIR_FILE[dir];
+					r += DIR_RANK[dir];
+				}
+			}
+		}
+
+		for (int a = 0; a < SQ_N; a++)
+			for (int dir = 0; dir < DIR_N; dir++)
+				for (long ray = RAYS[dir][a]; ray != 0; ray = popLsb(ray))
+				{
+					int b = lsb(ray);
+					BETWEEN[a][b] = RAYS[dir][a] & ~RAYS[dir][b] & ~bit(b);
+					// opposite direction is dir ^ 4
+					LINE[a][b] = RAYS[dir][a] | RAYS[dir ^ 4][a] | bit(a);
+				}
+	}
+
+	/******************** Square helpers ********************/
+	public static long bit(int sq) {	return 1L << sq;	}
+
+	public static int toSq(int file, int rank) {	return (rank << 3) + file;	}
+
+	public static int file(int sq) {	return sq & 7;	}
+
+	public static int rank(int sq) {	return sq >> 3;	}
+
+	public static boolean onBoard(int file, int rank)
+	{
+		return file >= 0 && file < FILE_N && rank >= 0 && rank < RANK_N;
+	}
+
+	/**
+	 * Bit of the square, or 0 if the coordinate falls off the board
+	 */
+	private static long bitAt(int file, int rank)
+	{
+		return onBoard(file, rank) ? bit(toSq(file, rank)) : 0;
+	}
+
+	/**
+	 * Is the square set in the bitboard?
+	 */
+	public static boolean has(long bb, int sq) {	return (bb >>> sq & 1) != 0;	}
+
+	/**
+	 * Index of the least significant set bit. Undefined for bb == 0
+	 */
+	public static int lsb(long bb) {	return Long.numberOfTrailingZeros(bb);	}
+
+	/**
+	 * Index of the most significant set bit. Undefined for bb == 0
+	 */
+	public static int msb(long bb) {	return 63 - Long.numberOfLeadingZeros(bb);	}
+
+	public static int popCount(long bb) {	return Long.bitCount(bb);	}
+
+	/**
+	 * Clears the least significant bit. Used to iterate:
+	 * for (; bb != 0; bb = popLsb(bb)) { int sq = lsb(bb); ... }
+	 */
+	public static long popLsb(long bb) {	return bb & (bb - 1);	}
+
+	/******************** Attacks ********************/
+	/**
+	 * Slider attacks along one ray, stopping at (and including) the first blocker.
+	 * Slow, builds the magic tables
+	 */
+	static long rayAttacks(int dir, int sq, long occ)
+	{
+		long attacks = RAYS[dir][sq];
+		long blockers = attacks & occ;
+		if (blockers != 0)
+			attacks ^= RAYS[dir][dir < RAY_S ? lsb(blockers) : msb(blockers)];
+		return attacks;
+	}
+
+	/**
+	 * Sliders look up their attacks in the magic tables, see Magic
+	 */
+	public static long bishopAttacks(int sq, long occ) {	return Magic.bishopAttacks(sq, occ);	}
+
+	public static long rookAttacks(int sq, long occ) {	return Magic.rookAttacks(sq, occ);	}
+
+	public static long queenAttacks(int sq, long occ)
+	{
+		return bishopAttacks(sq, occ) | rookAttacks(sq, occ);
+	}
+
+	/**
+	 * Squares attacked by a piece of the given type and side on sq
+	 */
+	public static long attacks(int piece, int side, int sq, long occ)
+	{
+		switch (piece)
+		{
+		case PAWN: return PAWN_ATTACKS[side][sq];
+		case KNIGHT: return KNIGHT_ATTACKS[sq];
+		case BISHOP: return bishopAttacks(sq, occ);
+		case ROOK: return rookAttacks(sq, occ);
+		case QUEEN: return queenAttacks(sq, occ);
+		case KING: return KING_ATTACKS[sq];
+		}
+		return 0;
+	}
+
+	/**
+	 * Debug printout, rank 8 on top
+	 */
+	public static String toString(long bb)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int rank = RANK_N - 1; rank >= 0; rank--)
+		{
+			for (int file = 0; file < FILE_N; file++)
+				sb.append(has(bb, toSq(file, rank)) ? 'x' : '.');
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
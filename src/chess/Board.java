@@ -1,12 +1,10 @@
 package chess;
 
 import utils.MaterialFactory;
+import utils.ModelFactory;
 
 import com.jme3.app.SimpleApplication;
 import com.jme3.app.state.AppStateManager;
-import com.jme3.asset.AssetManager;
-import com.jme3.collision.CollisionResult;
-import com.jme3.collision.CollisionResults;
 import com.jme3.input.InputManager;
 import com.jme3.input.controls.*;
 import com.jme3.material.Material;
@@ -17,9 +15,11 @@ import com.jme3.scene.*;
 import com.jme3.scene.shape.Quad;
 
 import control.FlipBoardState;
+import control.PieceMoveControl;
 import control.PieceSelectedControl;
+import control.QuadHoverControl;
 import control.QuadHoverState;
-import static chess.Piece.*;
+import static chess.Position.*;
 import static utils.Util.*;
 import static chess.BoardState.*;
 
@@ -35,31 +35,37 @@ public class Board
 	/* constants */
 	// Specifies the width of one chess square
 	public static final float SQ_WIDTH = 2f;
-	public static final int SQ_N = 64;
-	public static final int RANK_N = 8, FILE_N = 8;
 	
 	// Node scene graph
 	private Node rootNode;
 	
-	private AssetManager assetManager;
 	private InputManager inputManager;
 	private AppStateManager stateManager;
 	private Camera cam; 
 	private MaterialFactory factory = MaterialFactory.getInstance();
+	private ModelFactory models = ModelFactory.getInstance();
 
-	// Quad board
-	private Geometry boardQuads[] = new Geometry[SQ_N];
+	// Board: one mesh, the square colors come from a data texture
+	private Geometry boardMesh;
+	private final SquareColors squareColors = new SquareColors();
 	
 	// Housekeeper
 	private BoardManager boardManager;
 	
+	// Which side Excalibur plays, -1 if none
+	private int engineSide = -1;
+	
+	// Suggests target squares for the selected piece, null if none
+	private OpeningBook book;
+	private MoveList bookList = new MoveList();
+	
 	// Use different sets of models
 	private int modelId = 1;
 	private int pieceMatId = 1;
 	
 	/* Material texture configuration */
-	private Material lightQuadMat; // for board color
-	private Material darkQuadMat;
+	private ColorRGBA lightQuadColor; // for board color
+	private ColorRGBA darkQuadColor;
 	private Material lightPieceMat; // for pieces
 	private Material darkPieceMat;
 	
@@ -84,16 +90,15 @@ public class Board
 	private Board(SimpleApplication app)
 	{
 		this.rootNode = app.getRootNode();
-		this.assetManager = app.getAssetManager();
 		this.inputManager = app.getInputManager();
 		this.stateManager = app.getStateManager();
 		this.cam = app.getCamera();
+		this.picker = new Picker(cam);
 		
     	boardManager = new BoardManager(rootNode);
 
-		// Lay out the board made of quads
-		setQuadMaterial(factory.loadPlain(ColorRGBA.Brown), 
-                    		factory.loadPlain(ColorRGBA.LightGray));
+		// Lay out the board
+		setQuadColors(ColorRGBA.Brown, ColorRGBA.LightGray);
 		renderQuadBoard();
 
 		// Render the scene, default material/model ID = 1
@@ -104,6 +109,89 @@ public class Board
 	
 	public BoardManager getBoardManager() {	return this.boardManager;	}
 	
+	/**
+	 * The game on display
+	 */
+	public Game getGame() {	return boardManager.getGame();	}
+	
+	/**
+	 * Puts another game on display, e.g. one of many hosted games. 
+	 * Only the shown game is bound to the scene, the others stay headless. 
+	 * Excalibur stops playing, as after a take back
+	 */
+	public void show(Game game)
+	{
+		for (int sq = 0; sq < SQ_N; sq++)
+			detach(boardManager.getModel(sq));
+		boardManager = new BoardManager(rootNode, game);
+		engineSide = -1;
+		selectedPiece = null;
+		stateManager.detach(quadHighlightState);
+		renderPieces();
+	}
+	
+	public int getEngineSide() {	return this.engineSide;	}
+	
+	public void setBook(OpeningBook book) {	this.book = book;	}
+	
+	/**
+	 * Bitboard of the book target squares of the piece on sq, 0 if out of book
+	 */
+	public long getBookTargets(int sq)
+	{
+		return book == null ? 0 : 
+				book.targets(boardManager.getPosition(), bookList, sq);
+	}
+	
+	/**
+	 * Bitboard of the legal target squares of the piece on sq, 
+	 * 0 when it's Excalibur's turn
+	 */
+	public long getLegalTargets(int sq)
+	{
+		return isEngineTurn() ? 0 : boardManager.getGame().targets(sq);
+	}
+	
+	/**
+	 * Is it Excalibur's turn? Then clicks can't move pieces
+	 */
+	public boolean isEngineTurn()
+	{
+		return boardManager.getPosition().getTurn() == engineSide;
+	}
+	
+	/**
+	 * Play a move on the board with the usual animation, e.g. a move from the engine
+	 */
+	public void playMove(int move)
+	{
+		Piece piece = boardManager.getModel(Move.from(move));
+		if (piece != null)
+			piece.addControl(new PieceMoveControl(Move.to(move), Move.promo(move)));
+	}
+	
+	/**
+	 * Take back the last move. Excalibur stops playing, 
+	 * otherwise it would replay its move right away
+	 */
+	public void takeBack()
+	{
+		int move = boardManager.unmakeMove();
+		if (move == Move.NULL)	return;
+		engineSide = -1;
+		selectedPiece = null;
+		stateManager.detach(quadHighlightState);
+		
+		int from = Move.from(move), to = Move.to(move);
+		// Bring back the captured piece, or the pawn before promotion
+		if (Move.flag(move) == Move.EN_PASSANT)
+			renderPiece(to + (boardManager.getPosition().getTurn() == W ? -8 : 8));
+		else
+			renderPiece(to);
+		if (Move.flag(move) == Move.PROMOTION)
+			renderPiece(from);
+	}
+	
 	/**
 	 * Set the material for the pieces
 	 */
@@ -143,8 +231,8 @@ public class Board
 					ColorRGBA.Pink.mult(0.6f), ColorRGBA.Green.mult(0.3f), density);
 			break;
 		case 0 :
-			factory.toggleWireFrame(lightPieceMat);
-			factory.toggleWireFrame(darkPieceMat);
+			lightPieceMat = factory.toggleWireFrame(lightPieceMat);
+			darkPieceMat = factory.toggleWireFrame(darkPieceMat);
 		}
 	}
 	
@@ -153,12 +241,12 @@ public class Board
 	public int getModelId()	{	return this.modelId;	}
 	
 	/**
-	 * Set the material for the board
+	 * Set the colors of the board
 	 */
-	private void setQuadMaterial(Material lightMat, Material darkMat)
+	private void setQuadColors(ColorRGBA light, ColorRGBA dark)
 	{
-		this.lightQuadMat = lightMat;
-		this.darkQuadMat = darkMat;
+		this.lightQuadColor = light;
+		this.darkQuadColor = dark;
 	}
 	
 	
@@ -169,55 +257,96 @@ public class Board
 	 */
 	private void renderPieces()
 	{
-		int sq = 0;
-		for (int y = 0; y < RANK_N; y++)
-    		for (int x = 0; x < FILE_N; x++)
-    		{
-    			// First clear all old models
-    			Piece piece = null;
-    			if ((piece = boardManager.getModel(sq)) != null)
-    				rootNode.detachChild(piece);
-    					
-				int p = boardManager.getPiece(sq);
-				
-				if (p != NON)
-				{
-					piece = new Piece(
-							(Geometry) assetManager.loadModel("Models/" + Piece.name(p) + this.modelId + ".j3o"),
-							p,  // specify the piece type
-							boardManager.isWhite(sq) ? this.lightPieceMat : this.darkPieceMat,
-							boardManager.getSide(sq), x, y);
-					rootNode.attachChild(piece);
-				}
-				boardManager.setModel(sq++, piece);
-    		}
+		for (int sq = 0; sq < SQ_N; sq++)
+			renderPiece(sq);
 	}
 	
 	/**
-	 * Render the chess board
+	 * (Re)render the model on one square from the board record, 
+	 * e.g. after a pawn promotion
+	 */
+	public void renderPiece(int sq)
+	{
+		// First clear the old model
+		Piece piece = null;
+		if ((piece = boardManager.getModel(sq)) != null)
+			rootNode.detachChild(piece);
+		piece = null;
+		
+		int p = boardManager.getPiece(sq);
+		if (p != NON)
+		{
+			int[] xy = toXY(sq);
+			piece = new Piece(
+					models.getModel(p, this.modelId),
+					p,  // specify the piece type
+					boardManager.isWhite(sq) ? this.lightPieceMat : this.darkPieceMat,
+					boardManager.getSide(sq), xy[0], xy[1]);
+			rootNode.attachChild(piece);
+		}
+		boardManager.setModel(sq, piece);
+	}
+	
+	/**
+	 * Render the chess board: a single quad in one draw call. 
+	 * Its texture coordinates span the 8x8 square color texture
 	 */
 	private void renderQuadBoard()
 	{
-		int sq = 0;
-		for (int y = 0; y < RANK_N; y++)
-    		for (int x = 0; x < FILE_N; x++)
-    		{
-    			Geometry quad = new Geometry("@" + sq, new Quad(SQ_WIDTH, SQ_WIDTH));
-    			quad.setMaterial((x + y) % 2 == 0 ? 
-                    					this.darkQuadMat.clone() : this.lightQuadMat.clone());
-
-    			// Rotate to X-Z plane
-    			quad.rotate(toRad(-90), 0, 0);
-    			quad.move(coordSqCorner(x, y));
-    			// Floor only receives shadow
-    			quad.setShadowMode(ShadowMode.Receive);
-    			
-    			this.boardQuads[sq ++] = quad;
-    			rootNode.attachChild(quad);
-    		}
+		for (int sq = 0; sq < SQ_N; sq++)
+			squareColors.set(sq, getQuadColor(sq));
+		
+		boardMesh = new Geometry("Board", new Quad(FILE_N * SQ_WIDTH, RANK_N * SQ_WIDTH));
+		// The cached plain material is shared, ours gets the texture
+		Material mat = factory.loadPlain(ColorRGBA.White).clone();
+		mat.setTexture("ColorMap", squareColors.getTexture());
+		boardMesh.setMaterial(mat);
+		
+		// Rotate to X-Z plane
+		boardMesh.rotate(toRad(-90), 0, 0);
+		boardMesh.move(coordSqCorner(0, 0));
+		// Floor only receives shadow
+		boardMesh.setShadowMode(ShadowMode.Receive);
+		rootNode.attachChild(boardMesh);
+	}
+	
+	/**
+	 * The board geometry. The square controls are attached to it
+	 */
+	public Geometry getBoardMesh() {	return this.boardMesh;	}
+	
+	/**
+	 * The color a square shows now, highlighted or not
+	 */
+	public ColorRGBA getSquareColor(int sq) {	return squareColors.get(sq);	}
+	
+	public void setSquareColor(int sq, ColorRGBA c) {	squareColors.set(sq, c);	}
+	
+	/**
+	 * Stops hover highlighting on a square that takes another color, 
+	 * so that it doesn't restore a stale one later
+	 */
+	public void removeHover(int sq)
+	{
+		QuadHoverControl hover = boardMesh.getControl(QuadHoverControl.class);
+		if (hover != null)
+			hover.release(sq);
 	}
 	
-	public Geometry getQuad(int sq) {	return this.boardQuads[sq];	}
+	/**
+	 * The square under the cursor, as if no piece were there (see Picker)
+	 * @return -1 if the cursor is off the board
+	 */
+	public int squareAt(Vector2f cursor) {	return picker.squareAt(cursor);	}
+	
+	/**
+	 * The normal color of a quad, without highlighting
+	 */
+	public ColorRGBA getQuadColor(int sq)
+	{
+		int[] xy = toXY(sq);
+		return (xy[0] + xy[1]) % 2 == 0 ? this.darkQuadColor : this.lightQuadColor;
+	}
 	
 	/**
 	 * Remove the rendering of a model, detach from RootNode.
@@ -237,13 +366,11 @@ public class Board
 	// indicates which one is selected. null if none
 	private Piece selectedPiece = null;
 	
-	public Piece getSelectedPiece() {	return selectedPiece;	}
+	// What the mouse clicks on, reused
+	private Picker picker;
+	private final Picker.Pick pick = new Picker.Pick();
 	
-	public Geometry getQuadUnderSelectedPiece()
-	{
-		return selectedPiece != null ? 
-				boardQuads[selectedPiece.getSq()] : null;
-	}
+	public Piece getSelectedPiece() {	return selectedPiece;	}
 		
 	/**
 	 * Mouse listener: selects pieces
@@ -258,45 +385,31 @@ public class Board
 				if (isPressed)
 				if (name.equals(MAP_SELECT))
 	    		{
-	    			CollisionResults results = new CollisionResults();
-	    			Vector2f click2d = inputManager.getCursorPosition();
-	    			Vector3f click3d = cam.getWorldCoordinates(click2d, 0f); // depth 0
-	    			// 1 WU deep into the screen
-	    			Vector3f dir = cam.getWorldCoordinates(click2d, 0.5f).subtractLocal(click3d);
-	    			Ray ray  = new Ray(click3d, dir);
-	    			
-	    			rootNode.collideWith(ray, results);
-	    			for (CollisionResult res : results)
-					{
-	    				Geometry hit = res.getGeometry();
-	    				String hitName = hit.getName();
-	    				// If it's the board
-	    				if (hitName.charAt(0) == '@')
+	    			picker.pick(inputManager.getCursorPosition(), boardManager, pick);
+	    			if (pick.piece != null) // hits a piece
+	    			{
+	    				if (pick.piece != selectedPiece)
 	    				{
-	    					// If a piece is selected, move the piece to the designated location 
-	    					// and detach the SelectionControl
-	    					if (selectedPiece != null)
-	    					{
-	    						selectedPiece.addControl(
-	    									boardManager.moveControl(hitName));
-	    						stateManager.detach(quadHighlightState);
-	    						selectedPiece = null;
-	    					}
-    	    				break;
+	    					selectedPiece = pick.piece;
+	    					selectedPiece.addControl(new PieceSelectedControl());
+	    					// If a piece is selected, we allow quad highlighting
+	    					stateManager.attach(quadHighlightState);
 	    				}
-	    				else if (hitName.charAt(0) == '*') // hits a piece
+	    			}
+	    			// If it's the board
+	    			else if (pick.sq >= 0)
+	    			{
+	    				// If a piece is selected, move the piece to the designated location 
+	    				// and detach the SelectionControl
+	    				if (selectedPiece != null)
 	    				{
-	    					Piece hitPiece = (Piece) hit;
-	    					if (hitPiece != selectedPiece)
-	    					{
-    	    					selectedPiece = hitPiece;
-        						selectedPiece.addControl(new PieceSelectedControl());
-        						// If a piece is selected, we allow quad highlighting
-        						stateManager.attach(quadHighlightState);
-	    					}
-    	    				break;
+	    					// Excalibur's pieces are not ours to move
+	    					if (!isEngineTurn())
+	    						selectedPiece.addControl(boardManager.moveControl(pick.sq));
+	    					stateManager.detach(quadHighlightState);
+	    					selectedPiece = null;
 	    				}
-					}
+	    			}
 	    		}
 				// Right click
 				else if (name.equals(MAP_DESELECT))
@@ -327,7 +440,7 @@ public class Board
 					
 					if (isShiftPressed)
 					{
-						Board.this.modelId = id > 2 ? 2 : id;
+						Board.this.modelId = Math.max(1, Math.min(id, ModelFactory.MODEL_SETS));
 					}
 					else
 					{
@@ -340,6 +453,40 @@ public class Board
 		};
 	}
 	
+	/**
+	 * Keyboard listener: E lets Excalibur play the side to move, 
+	 * or takes over from it
+	 */
+	public ActionListener keyEngineListener()
+	{
+		return new ActionListener()
+		{
+			@Override
+			public void onAction(String name, boolean isPressed, float tpf)
+			{
+				if (isPressed)
+					engineSide = engineSide == -1 ? 
+							boardManager.getPosition().getTurn() : -1;
+			}
+		};
+	}
+	
+	/**
+	 * Keyboard listener: Backspace takes back the last move
+	 */
+	public ActionListener keyTakeBackListener()
+	{
+		return new ActionListener()
+		{
+			@Override
+			public void onAction(String name, boolean isPressed, float tpf)
+			{
+				if (isPressed)
+					takeBack();
+			}
+		};
+	}
+	
 	/**
 	 * Keyboard listener: rotate view
 	 * Default rotation direction: clockwise
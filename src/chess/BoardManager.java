@@ -1,53 +1,60 @@
 package chess;
 
-import static chess.Piece.*;
-import static chess.Board.*;
-import static utils.Util.*;
+import static chess.Position.*;
 
-import java.util.Arrays;
 import com.jme3.scene.Node;
 import control.PieceMoveControl;
 
 /**
  * @author Jim Fan  (c) 2014
  * Keep record of the chess pieces on board
+ * The game itself lives in a headless Game, 
+ * this class binds it to the scene with the 3D models on top of it.
  */
 public class BoardManager
 {
 	// Piece 3D mesh models
 	private Piece boardModels[] = new Piece[SQ_N];
-	// What pieces are on the board?
-	private int boardPieces[] = new int[SQ_N];
-	// What piece colors (sides) are on the board?
-	private int boardSides[] = new int[SQ_N];
-
-	private int turn; // whose turn? White or Black?
-	// Castling rights
-	// Castling encoding: 2 bits, msb = O-O-O, lsb = O-O
-	// &1 get kingside; &2 get queenside; &=1 delete queenside; &=2 delete kingside
-	private int castleRights[] = new int[SIDE_N];
+	// The game shown, and its position: what pieces and piece colors (sides) are on the board?
+	private final Game game;
+	private final Position position;
 	
 	private Node rootNode;
 	
 	/**
-	 * Ctor with the default FEN string
+	 * Ctor with a new game from the default FEN string
 	 */
 	public BoardManager(Node rootNode)
+	{
+		this(rootNode, new Game());
+	}
+	
+	/**
+	 * Binds a game to the scene. Models are set by the Board
+	 */
+	public BoardManager(Node rootNode, Game game)
 	{
 		this.rootNode = rootNode;
-		
-		// Initialize to default values
-		Arrays.fill(boardPieces, NON);
-		Arrays.fill(boardSides, -1);
-		
-		this.parseFEN(FEN_START);
+		this.game = game;
+		this.position = game.getPosition();
 	}
 	
+	public Game getGame() {	return this.game;	}
+	
+	/**
+	 * The rules core behind this board
+	 */
+	public Position getPosition() {	return this.position;	}
+	
+	/**
+	 * Zobrist key of the current position
+	 */
+	public long getKey() {	return position.getKey();	}
 	
 	/**
 	 * Get the piece at a specific square
 	 */
-	public int getPiece(int sq) {	return this.boardPieces[sq];	}
+	public int getPiece(int sq) {	return position.getPiece(sq);	}
 	
 	/**
 	 * Get the mesh model at a specific square
@@ -62,19 +69,19 @@ public class BoardManager
 	/**
 	 * Get the color (side) of the piece at a specific square
 	 */
-	public int getSide(int sq) {	return this.boardSides[sq];	}
+	public int getSide(int sq) {	return position.getSide(sq);	}
 	
 	/**
 	 * Is the color of the piece at sq white?
 	 */
-	public boolean isWhite(int sq) {	return this.boardSides[sq] == W;	}/**
+	public boolean isWhite(int sq) {	return position.isWhite(sq);	}
 
-	/*
+	/**
 	 * If the pieces on two squares are friendly pieces
 	 */
 	public boolean isSameSide(int sq1, int sq2)
 	{
-		return boardSides[sq1] == boardSides[sq2];
+		return position.isSameSide(sq1, sq2);
 	}
 	
 	
@@ -84,8 +91,7 @@ public class BoardManager
 	 */
 	public Piece remove(int sq)
 	{
-		this.boardPieces[sq] = NON;
-		this.boardSides[sq] = -1;
+		position.remove(sq);
 		Piece removed = this.boardModels[sq];
 		this.boardModels[sq] = null;
 		return removed;
@@ -99,90 +105,92 @@ public class BoardManager
 	 */
 	public Piece move(int sq1, int sq2)
 	{
-		this.boardPieces[sq2] = boardPieces[sq1];
-		this.boardSides[sq2] = boardSides[sq1];
+		position.move(sq1, sq2);
 		Piece captured = this.boardModels[sq2];
 		this.boardModels[sq2] = boardModels[sq1];
-		remove(sq1);
+		this.boardModels[sq1] = null;
 		return captured;
 	}
 
 	/**
-	 * Move the piece to the named quad
-	 * Update board keeping
-	 * Quad name looks like "@23"
+	 * The legal move from sq1 to sq2 for the side to move
+	 * @param promo promotion piece, NON for a queen
+	 * @return Move.NULL if there's none
 	 */
-	public PieceMoveControl moveControl(String quadName)
+	public int findMove(int sq1, int sq2, int promo)
 	{
-		int sq = Integer.parseInt(quadName.substring(1));
-		return new PieceMoveControl(sq);
+		return game.findMove(sq1, sq2, promo);
 	}
 	
 	/**
-	 * Default start position FEN string
+	 * Plays a legal move and moves the models along with it: 
+	 * the rook when castling, the pawn captured en passant. 
+	 * A promoted pawn keeps its old model, the caller re-renders it. 
+	 * @return the captured model, if any
 	 */
-	public static final String FEN_START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
-	
-	/**
-	 * Parse an FEN string and update the board record.
-	 */
-	private void parseFEN(String fen)
+	public Piece makeMove(int move)
 	{
-		int rank = 7; // FEN starts from the top rank
-		int file = 0; // left most file
+		int from = Move.from(move), to = Move.to(move);
+		int flag = Move.flag(move);
+		
+		int capturedSq = flag == Move.EN_PASSANT ? 
+				to + (position.getTurn() == W ? -8 : 8) : to;
+		Piece captured = this.boardModels[capturedSq];
+		this.boardModels[capturedSq] = null;
 		
-		char ch; int i = 0;
-		while ((ch = fen.charAt(i ++)) != ' ')
+		if (flag == Move.CASTLE)
 		{
-			if (ch == '/') // move down a rank
-			{
-				-- rank;
-				file = 0;
-			}
-			else if (Character.isDigit(ch)) // number means blank square, pass
-				file += ch - '0';
-			else
-			{
-				int side = Character.isUpperCase(ch) ? W : B;
-				ch = Character.toLowerCase(ch);
-				int piece = NON;
-				switch (ch)
-				{
-				case 'p': piece = PAWN; break;
-				case 'n': piece = KNIGHT; break;
-				case 'b': piece = BISHOP; break;
-				case 'r': piece = ROOK; break;
-				case 'q': piece = QUEEN; break;
-				case 'k': piece = KING; break;
-				}
-				// TODO add bit masks here
-				int sq = toSq(file, rank);
-				
-				this.boardPieces[sq] = piece;
-				this.boardSides[sq] = side;
-				
-				++ file;
-			}
+			// rook jumps to the other side of the king
+			int rookFrom = to > from ? to + 1 : to - 2;
+			int rookTo = to > from ? to - 1 : to + 1;
+			Piece rook = this.boardModels[rookFrom];
+			this.boardModels[rookTo] = rook;
+			this.boardModels[rookFrom] = null;
+			rook.locate(Bitboard.file(rookTo), Bitboard.rank(rookTo));
 		}
 		
-		this.turn = fen.charAt(i ++) == 'w' ? W : B;
-		i ++; // consume the white space
+		this.boardModels[to] = boardModels[from];
+		this.boardModels[from] = null;
+		game.play(move);
+		return captured;
+	}
+
+	/**
+	 * Takes back the last move and moves the models back with it. 
+	 * Captured pieces have dissolved and a promoted piece has the wrong model: 
+	 * the caller re-renders the squares of the returned move. 
+	 * @return the move taken back, Move.NULL if there's none
+	 */
+	public int unmakeMove()
+	{
+		int move = game.takeBack();
+		if (move == Move.NULL)
+			return Move.NULL;
+		int from = Move.from(move), to = Move.to(move);
 		
-		// castling status, '-' if none available
-		while ((ch = fen.charAt(i++)) != ' ')
+		if (Move.flag(move) == Move.CASTLE)
 		{
-			int side = Character.isUpperCase(ch) ? W : B;
-			ch = Character.toLowerCase(ch);
-			switch (ch)
-			{
-			case 'k': castleRights[side] |= 1; break;
-			case 'q': castleRights[side] |= 2; break;
-			case '-': continue;
-			}
+			int rookFrom = to > from ? to + 1 : to - 2;
+			int rookTo = to > from ? to - 1 : to + 1;
+			Piece rook = this.boardModels[rookTo];
+			this.boardModels[rookFrom] = rook;
+			this.boardModels[rookTo] = null;
+			rook.locate(Bitboard.file(rookFrom), Bitboard.rank(rookFrom));
 		}
 		
-		// TODO enpassent square here
-		// TODO fifty move and half move counter
-		
+		Piece piece = this.boardModels[to];
+		this.boardModels[from] = piece;
+		this.boardModels[to] = null;
+		piece.locate(Bitboard.file(from), Bitboard.rank(from));
+		return move;
+	}
+
+	/**
+	 * Move the piece to the square
+	 * Update board keeping
+	 */
+	public PieceMoveControl moveControl(int sq)
+	{
+		return new PieceMoveControl(sq);
 	}
 }
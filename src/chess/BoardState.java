@@ -1,6 +1,17 @@
 package chess;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import java.io.File;
+import java.io.IOException;
+
 import utils.LightingFactory;
+import control.FrameSearchState;
+import excalibur.Bitbase;
+import excalibur.Engine;
+import excalibur.SearchLimits;
+import excalibur.SearchListener;
 
 import com.jme3.app.*;
 import com.jme3.app.state.*;
@@ -40,6 +51,45 @@ public class BoardState extends AbstractAppState
 	// Chessboard with pieces
 	private Board board;
 	
+	// Excalibur searches on its own thread. Its best moves come back 
+	// through this queue, drained on the render thread in update()
+	private Engine engine;
+	// Single-core mode: the search runs in slices on the render thread instead, 
+	// null otherwise. Run with -Dexcalilux.frameSearch=true
+	private FrameSearchState frameSearch;
+	private final Queue<EngineMove> engineMoves = new ConcurrentLinkedQueue<EngineMove>();
+	private boolean engineThinking = false;
+	private long engineSearchKey; // the position the engine was last asked about
+	// Pondering: during the human's turn, the engine searches the position 
+	// after the reply it expects. If the human plays it, the search goes on
+	private boolean pondering = false;
+	private int expectedReply = Move.NULL;
+	private final MoveList ponderList = new MoveList();
+	// Game status of the position on the board, updated when a move is played 
+	// or taken back. Excalibur stops once the game is over
+	private int gameStatus = Game.PLAYING;
+	private long statusKey;
+	private int statusPlies = -1;
+	// Thinking time per engine move in milliseconds
+	private static final long ENGINE_MOVE_TIME = 2000;
+	
+	/**
+	 * A best move and the position it was found for
+	 */
+	private static class EngineMove
+	{
+		final long key;
+		final int move;
+		final int ponderMove;
+		
+		EngineMove(long key, int move, int ponderMove)
+		{
+			this.key = key;
+			this.move = move;
+			this.ponderMove = ponderMove;
+		}
+	}
+	
 	/*
 	 * Triggers of Listeners
 	 */
@@ -57,6 +107,11 @@ public class BoardState extends AbstractAppState
 		// Rotate the Camera view around the board
 		TRIGGER_ROTATE = new KeyTrigger(KeyInput.KEY_R),
 		TRIGGER_FLIP = new KeyTrigger(KeyInput.KEY_F),
+		
+		// Let Excalibur play the side to move
+		TRIGGER_ENGINE = new KeyTrigger(KeyInput.KEY_E),
+		// Take back the last move
+		TRIGGER_TAKE_BACK = new KeyTrigger(KeyInput.KEY_BACK),
 
 		// Choose different piece material [also serve for combination]
 		TRIGGER_1 = new KeyTrigger(KeyInput.KEY_1),
@@ -74,6 +129,8 @@ public class BoardState extends AbstractAppState
     	MAP_FLIP = "Flip",
     	MAP_SHIFT = "Shift",
     	MAP_CTRL = "Ctrl",
+    	MAP_ENGINE = "Engine",
+    	MAP_TAKE_BACK = "TakeBack",
     	MAP_NUM[] = new String[10];
 
 	
@@ -111,12 +168,28 @@ public class BoardState extends AbstractAppState
 		inputManager.addMapping(MAP_FLIP, TRIGGER_FLIP);
 		inputManager.addMapping(MAP_SHIFT, TRIGGER_SHIFT);
 		inputManager.addMapping(MAP_CTRL, TRIGGER_CTRL);
+		inputManager.addMapping(MAP_ENGINE, TRIGGER_ENGINE);
+		inputManager.addMapping(MAP_TAKE_BACK, TRIGGER_TAKE_BACK);
 		
 		inputManager.addListener(board.mouseListener(), MAP_SELECT, MAP_DESELECT);
 		inputManager.addListener(board.keyRotateListener("analog"), MAP_ROTATE);
 		inputManager.addListener(board.keyRotateListener("flip"), MAP_FLIP);
 		inputManager.addListener(board.keyComboListener(), MAP_SHIFT, MAP_CTRL);
 		inputManager.addListener(board.keyChoiceListener(), MAP_NUM);
+		inputManager.addListener(board.keyEngineListener(), MAP_ENGINE);
+		inputManager.addListener(board.keyTakeBackListener(), MAP_TAKE_BACK);
+		
+		// Search threads: run with -Dexcalilux.threads=N
+		engine = new Engine(Engine.DEFAULT_HASH_MB, Integer.getInteger("excalilux.threads", 1));
+		OpeningBook book = openBook();
+		engine.setBook(book);
+		board.setBook(book);
+		engine.setBitbase(openBitbase());
+		if (Boolean.getBoolean("excalilux.frameSearch"))
+		{
+			frameSearch = new FrameSearchState(engine);
+			stateManager.attach(frameSearch);
+		}
 		
 		
 		// Add white ambience
@@ -169,8 +242,187 @@ public class BoardState extends AbstractAppState
 	{
 		// Directional light goes with the camera
 		sun.setDirection(cam.getDirection());
+		
+		updateEngine();
+	}
+	
+	/**
+	 * Polyglot opening book, run with 
+	 * -Dexcalilux.book=book.bin -Dexcalilux.bookKeys=random64.txt
+	 * @return null if none or broken
+	 */
+	private static OpeningBook openBook()
+	{
+		String book = System.getProperty("excalilux.book");
+		String keys = System.getProperty("excalilux.bookKeys");
+		if (book == null || keys == null)
+			return null;
+		try {
+			return new OpeningBook(new File(book), new File(keys));
+		}
+		catch (IOException e) {
+			System.err.println("Can't open the opening book: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Endgame bitbases made by BitbaseGen, run with -Dexcalilux.bitbase=file
+	 * @return null if none or broken
+	 */
+	private static Bitbase openBitbase()
+	{
+		String file = System.getProperty("excalilux.bitbase");
+		if (file == null)
+			return null;
+		try {
+			return new Bitbase(new File(file));
+		}
+		catch (IOException e) {
+			System.err.println("Can't open the bitbase: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Plays the engine's moves and starts a search when it's the engine's turn. 
+	 * Ponders during the human's turn. Never waits for the search thread.
+	 */
+	private void updateEngine()
+	{
+		BoardManager manager = board.getBoardManager();
+		
+		EngineMove result;
+		while ((result = engineMoves.poll()) != null)
+		{
+			// Drop results of searches that were replaced or stopped
+			if (result.key != engineSearchKey)
+				continue;
+			engineThinking = false;
+			// Drop results for a position that isn't on the board anymore
+			if (result.key == manager.getKey() && result.move != Move.NULL 
+					&& board.isEngineTurn())
+			{
+				board.playMove(result.move);
+				expectedReply = result.ponderMove;
+			}
+		}
+		
+		updateStatus(manager);
+		if (board.getEngineSide() == -1 || gameStatus != Game.PLAYING)
+		{
+			// Taken over by the human or game over, a late result gets dropped
+			if (engineThinking)
+				stopSearch();
+			engineThinking = pondering = false;
+			engineSearchKey = 0;
+			expectedReply = Move.NULL;
+		}
+		else if (!board.isEngineTurn())
+		{
+			// The engine's move is on the board: ponder the expected reply
+			if (!engineThinking && expectedReply != Move.NULL)
+			{
+				Position pos = new Position(manager.getPosition());
+				int reply = expectedReply;
+				expectedReply = Move.NULL;
+				if (MoveGen.find(pos, ponderList, Move.from(reply), Move.to(reply), 
+						Move.promo(reply)) == reply)
+				{
+					pos.makeMove(reply);
+					pondering = true;
+					search(pos, SearchLimits.ponder(ENGINE_MOVE_TIME));
+				}
+			}
+		}
+		else
+		{
+			if (pondering)
+			{
+				pondering = false;
+				if (manager.getKey() == engineSearchKey)
+					ponderHit(); // the search goes on, its result comes as usual
+				else
+				{
+					// Another reply: the table is still warm for the new search
+					stopSearch();
+					engineThinking = false;
+				}
+			}
+			if (!engineThinking && manager.getKey() != engineSearchKey)
+				search(manager.getPosition(), SearchLimits.moveTime(ENGINE_MOVE_TIME));
+		}
+	}
+	
+	/**
+	 * Checks for mate and draws after each move on the board, announces the end once
+	 */
+	private void updateStatus(BoardManager manager)
+	{
+		int plies = manager.getPosition().getHistorySize();
+		if (manager.getKey() == statusKey && plies == statusPlies)
+			return;
+		statusKey = manager.getKey();
+		statusPlies = plies;
+		int status = manager.getGame().getStatus();
+		if (status != gameStatus && status != Game.PLAYING)
+			System.out.println(Game.statusName(status));
+		gameStatus = status;
+	}
+	
+	/**
+	 * Starts a search whose result comes back through engineMoves
+	 */
+	private void search(Position pos, SearchLimits limits)
+	{
+		final long key = engineSearchKey = pos.getKey();
+		engineThinking = true;
+		startSearch(pos, limits, new SearchListener()
+			{
+				// Iterations are reported by the headless tools only (Uci, EpdRunner)
+				@Override
+				public void onInfo(int depth, int score, long nodes, long millis, 
+						int[] pv, int pvLength) {}
+				
+				@Override
+				public void onBestMove(int move, int ponderMove)
+				{
+					engineMoves.add(new EngineMove(key, move, ponderMove));
+				}
+			});
+	}
+	
+	/**
+	 * On the engine's threads, or in frame slices in single-core mode
+	 */
+	private void startSearch(Position pos, SearchLimits limits, SearchListener listener)
+	{
+		if (frameSearch != null)
+			frameSearch.go(pos, limits, listener);
+		else
+			engine.go(pos, limits, listener);
+	}
+	
+	private void stopSearch()
+	{
+		if (frameSearch != null)
+			frameSearch.stop();
+		else
+			engine.stop();
+	}
+	
+	private void ponderHit()
+	{
+		if (frameSearch != null)
+			frameSearch.ponderHit();
+		else
+			engine.ponderHit();
 	}
 	
 	@Override
-	public void cleanup() {}
+	public void cleanup()
+	{
+		if (engine != null)
+			engine.shutdown();
+	}
 }
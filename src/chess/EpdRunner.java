@@ -0,0 +1,211 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import excalibur.Search;
+import excalibur.SearchLimits;
+import excalibur.SearchListener;
+import excalibur.TranspositionTable;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Headless EPD test suite runner: no jME, no display.
+ *
+ * Every position is analysed with a fixed depth or time. Workers take
+ * positions one at a time, each with its own search and table, so all
+ * cores are busy with one search each. A position is solved if the final
+ * best move is one of its "bm" moves and none of its "am" moves.
+ * Time to solution is when the search settled on a solving move for good.
+ *
+ * java -cp bin chess.EpdRunner suite.epd [-depth N | -time ms] [-threads N] [-hash MB] [-v]
+ */
+public class EpdRunner
+{
+	/**
+	 * A test position and its result
+	 */
+	private static class Test
+	{
+		final String line;
+		final Position pos = new Position();
+		String id;
+		final List<Integer> best = new ArrayList<Integer>(), avoid = new ArrayList<Integer>();
+		String error; // malformed record, not searched
+
+		int move = Move.NULL;
+		long nodes;
+		long solvedAt = -1; // millis, -1 if not solved
+		int depth;
+
+		Test(String line) {	this.line = line;	}
+
+		boolean solves(int m)
+		{
+			return (best.isEmpty() || best.contains(m)) && !avoid.contains(m);
+		}
+	}
+
+	/**
+	 * Reads the position and the bm, am and id operations
+	 */
+	private static Test parse(String line, MoveList list)
+	{
+		Test test = new Test(line);
+		int i;
+		try {
+			i = Fen.parse(line, test.pos);
+		}
+		catch (IllegalArgumentException e) {
+			test.error = e.getMessage();
+			return test;
+		}
+		// Operations: opcode operands... ;
+		for (String op : line.substring(i).split(";"))
+		{
+			String words[] = op.trim().split("\\s+", 2);
+			if (words.length < 2)	continue;
+			String opcode = words[0], operands = words[1].trim();
+			if (opcode.equals("id"))
+				test.id = operands.replace("\"", "");
+			else if (opcode.equals("bm") || opcode.equals("am"))
+				for (String san : operands.split("\\s+"))
+				{
+					byte bytes[] = san.getBytes(StandardCharsets.US_ASCII);
+					int move = Pgn.parseSan(test.pos, list, bytes, 0, bytes.length);
+					if (move == Move.NULL)
+					{
+						test.error = "Bad move " + san;
+						return test;
+					}
+					(opcode.equals("bm") ? test.best : test.avoid).add(move);
+				}
+		}
+		if (test.best.isEmpty() && test.avoid.isEmpty())
+			test.error = "No bm or am";
+		return test;
+	}
+
+	/**
+	 * Searches tests until none is left
+	 */
+	private static void work(List<Test> tests, AtomicInteger next, SearchLimits limits,
+			int hashMb, boolean verbose)
+	{
+		TranspositionTable tt = new TranspositionTable(hashMb);
+		Search search = new Search(tt);
+		int n;
+		while ((n = next.getAndIncrement()) < tests.size())
+		{
+			final Test test = tests.get(n);
+			if (test.error != null)	continue;
+			tt.clear();
+			tt.newSearch();
+			search.reset();
+			search.think(test.pos, limits, new SearchListener()
+			{
+				@Override
+				public void onInfo(int depth, int score, long nodes, long millis, int pv[], int pvLength)
+				{
+					test.depth = depth;
+					// Solved since the first of the last streak of solving iterations
+					if (!test.solves(pv[0]))
+						test.solvedAt = -1;
+					else if (test.solvedAt < 0)
+						test.solvedAt = millis;
+				}
+
+				@Override
+				public void onBestMove(int move, int ponderMove) {}
+			});
+			test.move = search.getBestMove();
+			test.nodes = search.getNodes();
+			if (!test.solves(test.move))
+				test.solvedAt = -1;
+			if (verbose)
+				synchronized (tests)
+				{
+					System.out.printf("%-16s %-6s %s  depth %d  %,d nodes%n",
+							test.id != null ? test.id : "#" + (n + 1), Move.toString(test.move),
+							test.solvedAt >= 0 ? "solved in " + test.solvedAt + " ms" : "FAILED",
+							test.depth, test.nodes);
+				}
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length == 0)
+		{
+			System.out.println("java -cp bin chess.EpdRunner suite.epd "
+					+ "[-depth N | -time ms] [-threads N] [-hash MB] [-v]");
+			return;
+		}
+		int depth = 0, threads = Runtime.getRuntime().availableProcessors(), hashMb = 16;
+		long time = 0;
+		boolean verbose = false;
+		for (int i = 1; i < args.length; i++)
+		{
+			if (args[i].equals("-depth"))	depth = Integer.parseInt(args[++ i]);
+			else if (args[i].equals("-time"))	time = Long.parseLong(args[++ i]);
+			else if (args[i].equals("-threads"))	threads = Integer.parseInt(args[++ i]);
+			else if (args[i].equals("-hash"))	hashMb = Integer.parseInt(args[++ i]);
+			else if (args[i].equals("-v"))	verbose = true;
+			else throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+		final SearchLimits limits = depth > 0 ? SearchLimits.depth(depth)
+				: SearchLimits.moveTime(time > 0 ? time : 1000);
+
+		MoveList list = new MoveList();
+		final List<Test> tests = new ArrayList<Test>();
+		for (String line : Files.readAllLines(Paths.get(args[0]), StandardCharsets.ISO_8859_1))
+			if (!line.trim().isEmpty() && !line.startsWith("#"))
+				tests.add(parse(line.trim(), list));
+		for (Test t : tests)
+			if (t.error != null)
+				System.out.println("Skipped (" + t.error + "): " + t.line);
+
+		final AtomicInteger next = new AtomicInteger();
+		final int workerHash = hashMb;
+		final boolean verboseOut = verbose;
+		Thread workers[] = new Thread[Math.max(threads, 1)];
+		long start = System.nanoTime();
+		for (int t = 0; t < workers.length; t++)
+		{
+			workers[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run() {	work(tests, next, limits, workerHash, verboseOut);	}
+			}, "EpdRunner-" + t);
+			workers[t].start();
+		}
+		for (Thread w : workers)
+			w.join();
+		long wallNanos = Math.max(System.nanoTime() - start, 1);
+
+		int searched = 0, solved = 0;
+		long nodes = 0, solveMillis = 0;
+		for (Test t : tests)
+		{
+			if (t.error != null)	continue;
+			++ searched;
+			nodes += t.nodes;
+			if (t.solvedAt >= 0)
+			{
+				++ solved;
+				solveMillis += t.solvedAt;
+			}
+		}
+		System.out.printf("%s, %d worker(s): solved %d / %d (%.1f%%)%n",
+				depth > 0 ? "depth " + depth : limits.moveTime + " ms", workers.length,
+				solved, searched, 100.0 * solved / Math.max(searched, 1));
+		System.out.printf("%,d nodes  %d ms  %,d nps  average time to solution %d ms%n",
+				nodes, wallNanos / 1000000, nodes * 1000000000L / wallNanos,
+				solveMillis / Math.max(solved, 1));
+	}
+}
@@ -0,0 +1,284 @@
+package chess;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Tapered material and piece-square evaluation.
+ *
+ * Every piece has a middlegame and an endgame value that depends on its square.
+ * Position keeps both sums up to date in put() and remove(), along with the
+ * game phase, so evaluate() is O(1): it only blends the two sums by phase.
+ *
+ * Pawn structure and king shelter depend on the pawns alone (and on the king's
+ * wing), so the engine caches them by Position.getPawnKey(), see PawnHashTable.
+ */
+public final class Eval
+{
+	private Eval() {}
+
+	// Material, indexed by piece type
+	public static final int MG_VALUE[] = {0, 82, 337, 365, 477, 1025, 0};
+	public static final int EG_VALUE[] = {0, 94, 281, 297, 512, 936, 0};
+
+	// Phase weight of each piece type: 24 with all pieces on board, 0 with pawns only
+	static final int PHASE_WEIGHT[] = {0, 0, 1, 1, 2, 4, 0};
+	public static final int PHASE_MAX = 24;
+
+	/*
+	 * Piece-square tables from white's point of view, a8 first as printed.
+	 * White looks up sq ^ 56, black looks up sq.
+	 */
+	private static final int PAWN_MG[] = {
+		  0,   0,   0,   0,   0,   0,   0,   0,
+		 50,  50,  50,  50,  50,  50,  50,  50,
+		 10,  10,  20,  30,  30,  20,  10,  10,
+		  5,   5,  10,  25,  25,  10,   5,   5,
+		  0,   0,   0,  20,  20,   0,   0,   0,
+		  5,  -5, -10,   0,   0, -10,  -5,   5,
+		  5,  10,  10, -20, -20,  10,  10,   5,
+		  0,   0,   0,   0,   0,   0,   0,   0,
+	};
+	private static final int PAWN_EG[] = {
+		  0,   0,   0,   0,   0,   0,   0,   0,
+		 90,  90,  90,  90,  90,  90,  90,  90,
+		 50,  50,  50,  50,  50,  50,  50,  50,
+		 30,  30,  30,  30,  30,  30,  30,  30,
+		 15,  15,  15,  15,  15,  15,  15,  15,
+		  5,   5,   5,   5,   5,   5,   5,   5,
+		  0,   0,   0,   0,   0,   0,   0,   0,
+		  0,   0,   0,   0,   0,   0,   0,   0,
+	};
+	private static final int KNIGHT_PST[] = {
+		-50, -40, -30, -30, -30, -30, -40, -50,
+		-40, -20,   0,   0,   0,   0, -20, -40,
+		-30,   0,  10,  15,  15,  10,   0, -30,
+		-30,   5,  15,  20,  20,  15,   5, -30,
+		-30,   0,  15,  20,  20,  15,   0, -30,
+		-30,   5,  10,  15,  15,  10,   5, -30,
+		-40, -20,   0,   5,   5,   0, -20, -40,
+		-50, -40, -30, -30, -30, -30, -40, -50,
+	};
+	private static final int BISHOP_PST[] = {
+		-20, -10, -10, -10, -10, -10, -10, -20,
+		-10,   0,   0,   0,   0,   0,   0, -10,
+		-10,   0,   5,  10,  10,   5,   0, -10,
+		-10,   5,   5,  10,  10,   5,   5, -10,
+		-10,   0,  10,  10,  10,  10,   0, -10,
+		-10,  10,  10,  10,  10,  10,  10, -10,
+		-10,   5,   0,   0,   0,   0,   5, -10,
+		-20, -10, -10, -10, -10, -10, -10, -20,
+	};
+	private static final int ROOK_PST[] = {
+		  0,   0,   0,   0,   0,   0,   0,   0,
+		  5,  10,  10,  10,  10,  10,  10,   5,
+		 -5,   0,   0,   0,   0,   0,   0,  -5,
+		 -5,   0,   0,   0,   0,   0,   0,  -5,
+		 -5,   0,   0,   0,   0,   0,   0,  -5,
+		 -5,   0,   0,   0,   0,   0,   0,  -5,
+		 -5,   0,   0,   0,   0,   0,   0,  -5,
+		  0,   0,   0,   5,   5,   0,   0,   0,
+	};
+	private static final int QUEEN_PST[] = {
+		-20, -10, -10,  -5,  -5, -10, -10, -20,
+		-10,   0,   0,   0,   0,   0,   0, -10,
+		-10,   0,   5,   5,   5,   5,   0, -10,
+		 -5,   0,   5,   5,   5,   5,   0,  -5,
+		  0,   0,   5,   5,   5,   5,   0,  -5,
+		-10,   5,   5,   5,   5,   5,   0, -10,
+		-10,   0,   5,   0,   0,   0,   0, -10,
+		-20, -10, -10,  -5,  -5, -10, -10, -20,
+	};
+	// The king hides in the middlegame and comes out in the endgame
+	private static final int KING_MG[] = {
+		-30, -40, -40, -50, -50, -40, -40, -30,
+		-30, -40, -40, -50, -50, -40, -40, -30,
+		-30, -40, -40, -50, -50, -40, -40, -30,
+		-30, -40, -40, -50, -50, -40, -40, -30,
+		-20, -30, -30, -40, -40, -30, -30, -20,
+		-10, -20, -20, -20, -20, -20, -20, -10,
+		 20,  20,   0,   0,   0,   0,  20,  20,
+		 20,  30,  10,   0,   0,  10,  30,  20,
+	};
+	private static final int KING_EG[] = {
+		-50, -40, -30, -20, -20, -30, -40, -50,
+		-30, -20, -10,   0,   0, -10, -20, -30,
+		-30, -10,  20,  30,  30,  20, -10, -30,
+		-30, -10,  30,  40,  40,  30, -10, -30,
+		-30, -10,  30,  40,  40,  30, -10, -30,
+		-30, -10,  20,  30,  30,  20, -10, -30,
+		-30, -30,   0,   0,   0,   0, -30, -30,
+		-50, -30, -30, -30, -30, -30, -30, -50,
+	};
+
+	/*
+	 * Material plus square bonus, signed: positive for white, negative for black.
+	 * [side][piece][sq], what Position adds when putting a piece.
+	 */
+	static final int MG[][][] = new int[SIDE_N][PIECE_N][SQ_N];
+	static final int EG[][][] = new int[SIDE_N][PIECE_N][SQ_N];
+
+	static
+	{
+		final int mgTables[][] = {null, PAWN_MG, KNIGHT_PST, BISHOP_PST, ROOK_PST, QUEEN_PST, KING_MG};
+		final int egTables[][] = {null, PAWN_EG, KNIGHT_PST, BISHOP_PST, ROOK_PST, QUEEN_PST, KING_EG};
+		for (int piece = PAWN; piece < PIECE_N; piece++)
+			for (int sq = 0; sq < SQ_N; sq++)
+			{
+				MG[W][piece][sq] = MG_VALUE[piece] + mgTables[piece][sq ^ 56];
+				EG[W][piece][sq] = EG_VALUE[piece] + egTables[piece][sq ^ 56];
+				MG[B][piece][sq] = -(MG_VALUE[piece] + mgTables[piece][sq]);
+				EG[B][piece][sq] = -(EG_VALUE[piece] + egTables[piece][sq]);
+			}
+	}
+
+	// Pawn structure terms, middlegame and endgame
+	private static final int DOUBLED_MG = 10, DOUBLED_EG = 20,
+			ISOLATED_MG = 10, ISOLATED_EG = 15;
+	// Passed pawn bonus by rank, from the pawn's side
+	private static final int PASSED_MG[] = {0, 5, 10, 15, 25, 40, 60, 0};
+	private static final int PASSED_EG[] = {0, 10, 20, 35, 60, 90, 130, 0};
+
+	// King shelter penalty per file of the king's wing:
+	// no own pawn in front, pawn pushed one square, pawn pushed further
+	private static final int SHELTER_NONE = 25, SHELTER_PUSHED = 10, SHELTER_ADVANCED = 20;
+	// King wings: queenside a-c, center d-e, kingside f-h
+	public static final int WING_N = 3;
+	private static final int WING_OF_FILE[] = {0, 0, 0, 1, 1, 2, 2, 2};
+	private static final int WING_FILES[][] = {{0, 1, 2}, {2, 3, 4, 5}, {5, 6, 7}};
+
+	// Files next to each file
+	private static final long ADJACENT_FILES[] = new long[FILE_N];
+	// Squares in front of a pawn on its file and the adjacent ones: no enemy pawn there means passed
+	private static final long PASSED_MASK[][] = new long[SIDE_N][SQ_N];
+
+	static
+	{
+		for (int file = 0; file < FILE_N; file++)
+			ADJACENT_FILES[file] = (file > 0 ? FILES[file - 1] : 0) | (file < 7 ? FILES[file + 1] : 0);
+		for (int sq = 0; sq < SQ_N; sq++)
+		{
+			long span = FILES[file(sq)] | ADJACENT_FILES[file(sq)];
+			for (int r = rank(sq) + 1; r < RANK_N; r++)
+				PASSED_MASK[W][sq] |= span & RANKS[r];
+			for (int r = rank(sq) - 1; r >= 0; r--)
+				PASSED_MASK[B][sq] |= span & RANKS[r];
+		}
+	}
+
+	/**
+	 * Tapered score in centipawns, from the side to move. O(1)
+	 */
+	public static int evaluate(Position pos)
+	{
+		return evaluate(pos, 0, 0);
+	}
+
+	/**
+	 * Tapered score with extra terms, from the side to move
+	 * @param mg extra middlegame score, white minus black
+	 * @param eg extra endgame score, white minus black
+	 */
+	public static int evaluate(Position pos, int mg, int eg)
+	{
+		int phase = Math.min(pos.getPhase(), PHASE_MAX);
+		int score = ((pos.getMgScore() + mg) * phase
+				+ (pos.getEgScore() + eg) * (PHASE_MAX - phase)) / PHASE_MAX;
+		return pos.getTurn() == W ? score : -score;
+	}
+
+
+	/******************** Pawns ********************/
+	/**
+	 * Doubled, isolated and passed pawns, white minus black
+	 * @param eg false for the middlegame score, true for the endgame score
+	 */
+	public static int pawnStructure(Position pos, boolean eg)
+	{
+		int score = 0;
+		for (int side = W; side < SIDE_N; side++)
+		{
+			long ours = pos.pieces(side, PAWN), theirs = pos.pieces(side ^ 1, PAWN);
+			int s = 0;
+			for (int file = 0; file < FILE_N; file++)
+			{
+				int n = popCount(ours & FILES[file]);
+				if (n == 0)	continue;
+				s -= (n - 1) * (eg ? DOUBLED_EG : DOUBLED_MG);
+				if ((ours & ADJACENT_FILES[file]) == 0)
+					s -= n * (eg ? ISOLATED_EG : ISOLATED_MG);
+			}
+			for (long bb = ours; bb != 0; bb = popLsb(bb))
+			{
+				int sq = lsb(bb);
+				if ((PASSED_MASK[side][sq] & theirs) == 0)
+				{
+					int r = side == W ? rank(sq) : 7 - rank(sq);
+					s += eg ? PASSED_EG[r] : PASSED_MG[r];
+				}
+			}
+			score += side == W ? s : -s;
+		}
+		return score;
+	}
+
+	/**
+	 * Wing of a king on the given file, 0 to WING_N - 1
+	 */
+	public static int wing(int file) {	return WING_OF_FILE[file];	}
+
+	/**
+	 * Middlegame penalty for missing pawn cover of a king on its back ranks, on one wing
+	 */
+	public static int shelterPenalty(Position pos, int side, int wing)
+	{
+		long ours = pos.pieces(side, PAWN);
+		int penalty = 0;
+		for (int file : WING_FILES[wing])
+		{
+			long pawns = ours & FILES[file];
+			if (pawns == 0)
+			{
+				penalty += SHELTER_NONE;
+				continue;
+			}
+			// The pawn closest to the king
+			int sq = side == W ? lsb(pawns) : msb(pawns);
+			int r = side == W ? rank(sq) : 7 - rank(sq);
+			if (r == 2)	penalty += SHELTER_PUSHED;
+			else if (r > 2)	penalty += SHELTER_ADVANCED;
+		}
+		return penalty;
+	}
+
+	/**
+	 * Is the king on its own first two ranks, where the shelter counts?
+	 */
+	public static boolean kingAtHome(Position pos, int side)
+	{
+		int r = rank(pos.kingSq(side));
+		return side == W ? r <= 1 : r >= 6;
+	}
+
+	/**
+	 * The same score from a scan of the whole board.
+	 * Slow, only for verification and benchmarking
+	 */
+	public static int evaluateFromScratch(Position pos)
+	{
+		int mg = 0, eg = 0, phase = 0;
+		for (int side = W; side < SIDE_N; side++)
+			for (int piece = PAWN; piece < PIECE_N; piece++)
+				for (long bb = pos.pieces(side, piece); bb != 0; bb = popLsb(bb))
+				{
+					int sq = lsb(bb);
+					mg += MG[side][piece][sq];
+					eg += EG[side][piece][sq];
+					phase += PHASE_WEIGHT[piece];
+				}
+		phase = Math.min(phase, PHASE_MAX);
+		int score = (mg * phase + eg * (PHASE_MAX - phase)) / PHASE_MAX;
+		return pos.getTurn() == W ? score : -score;
+	}
+}
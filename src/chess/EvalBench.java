@@ -0,0 +1,119 @@
+package chess;
+
+import java.util.Random;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Evaluation throughput benchmark (headless), in calls per second.
+ * Positions come from seeded random games. The incremental Eval.evaluate()
+ * is timed against the full board scan it replaces, and both must agree:
+ * exits with status 1 if they don't.
+ * The cost moved into put()/remove() shows in the make/unmake rate.
+ *
+ * java -cp bin chess.EvalBench [positions]
+ */
+public class EvalBench
+{
+	private static final int ROUNDS = 5;
+	private static final int CALLS_PER_POSITION = 200;
+
+	// Keeps the JIT from dropping the calls
+	private static volatile int sink;
+
+	private static Position[] randomGames(int count)
+	{
+		Random random = new Random(2014);
+		MoveList list = new MoveList();
+		Position pos = new Position();
+		Position positions[] = new Position[count];
+		int n = 0;
+		while (n < count)
+		{
+			Fen.parse(Position.FEN_START, pos);
+			for (int ply = 0; ply < 200 && n < count; ply++)
+			{
+				if (MoveGen.generate(pos, list) == 0)	break;
+				pos.makeMove(list.moves[random.nextInt(list.size)]);
+				// A FEN copy, without the game history
+				positions[n ++] = new Position(Fen.toString(pos));
+			}
+		}
+		return positions;
+	}
+
+	private static void report(String what, long calls, long nanos)
+	{
+		System.out.printf("%-24s %,14d calls  %6d ms  %,14d calls/s%n",
+				what, calls, nanos / 1000000, calls * 1000000000L / Math.max(nanos, 1));
+	}
+
+	private static long timeIncremental(Position positions[])
+	{
+		long start = System.nanoTime();
+		int sum = 0;
+		// Position in the inner loop, so the call can't be hoisted
+		for (int i = 0; i < CALLS_PER_POSITION; i++)
+			for (Position pos : positions)
+				sum += Eval.evaluate(pos);
+		sink = sum;
+		return System.nanoTime() - start;
+	}
+
+	private static long timeFromScratch(Position positions[])
+	{
+		long start = System.nanoTime();
+		int sum = 0;
+		// Position in the inner loop, so the call can't be hoisted
+		for (int i = 0; i < CALLS_PER_POSITION; i++)
+			for (Position pos : positions)
+				sum += Eval.evaluateFromScratch(pos);
+		sink = sum;
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Makes and unmakes every legal move of every position
+	 * @return number of moves
+	 */
+	private static long makeUnmake(Position positions[], MoveList list)
+	{
+		long moves = 0;
+		for (Position pos : positions)
+		{
+			int n = MoveGen.generate(pos, list);
+			for (int i = 0; i < n; i++)
+			{
+				pos.makeMove(list.moves[i]);
+				pos.unmakeMove();
+			}
+			moves += n;
+		}
+		return moves;
+	}
+
+	public static void main(String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		Position positions[] = randomGames(count);
+
+		for (Position pos : positions)
+			if (Eval.evaluate(pos) != Eval.evaluateFromScratch(pos))
+			{
+				System.out.println("Eval mismatch: " + Fen.toString(pos));
+				System.exit(1);
+			}
+		System.out.println(count + " positions, incremental eval checked");
+
+		MoveList list = new MoveList();
+		long calls = (long) count * CALLS_PER_POSITION;
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			System.out.println("Round " + (round + 1));
+			report("incremental", calls, timeIncremental(positions));
+			report("full board scan", calls, timeFromScratch(positions));
+			long start = System.nanoTime();
+			long moves = makeUnmake(positions, list);
+			report("make/unmake", moves, System.nanoTime() - start);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package chess;
 
 import utils.LightingFactory;
 import utils.MaterialFactory;
+import utils.ModelFactory;
 import utils.Util;
 
 import com.jme3.app.SimpleApplication;
@@ -52,6 +53,9 @@ public class ExcaliLux extends SimpleApplication
     	// Setting up various factories
     	MaterialFactory.setup(assetManager);
     	LightingFactory.setup(rootNode, cam);
+    	ModelFactory.setup(assetManager);
+    	// Every model set, so that switching sets doesn't stall
+    	ModelFactory.getInstance().preload();
 
     	// Make the mouse visible
     	flyCam.setDragToRotate(true);
@@ -0,0 +1,308 @@
+package chess;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * FEN and EPD reading and writing.
+ *
+ * The parser works directly over a CharSequence or a byte slice,
+ * so millions of EPD lines can be loaded without creating a String each.
+ * Every field is validated; a malformed record throws IllegalArgumentException.
+ * The writer appends to a caller-owned StringBuilder.
+ */
+public final class Fen
+{
+	private Fen() {}
+
+	private static final String PIECE_CHARS = ".pnbrqk";
+
+
+	/******************** Parsing ********************/
+	/**
+	 * Parses a FEN, or the position part of an EPD record, into pos.
+	 * The clocks are optional (EPD has none): they default to 0 and 1.
+	 * @return index just past the last parsed field, where EPD operations start
+	 * @throws IllegalArgumentException if malformed. pos is then left cleared
+	 */
+	public static int parse(CharSequence fen, Position pos)
+	{
+		return parse(fen, null, 0, fen.length(), pos);
+	}
+
+	/**
+	 * Parses a FEN or EPD record from a slice of a larger text, e.g. a CharBuffer
+	 * @return index just past the last parsed field, where EPD operations start
+	 * @throws IllegalArgumentException if malformed. pos is then left cleared
+	 */
+	public static int parse(CharSequence seq, int start, int end, Position pos)
+	{
+		return parse(seq, null, start, end, pos);
+	}
+
+	/**
+	 * Parses a FEN or EPD record from an ASCII byte slice, e.g. a line of a mapped file
+	 * @return index just past the last parsed field, where EPD operations start
+	 * @throws IllegalArgumentException if malformed. pos is then left cleared
+	 */
+	public static int parse(byte buf[], int off, int len, Position pos)
+	{
+		return parse(null, buf, off, off + len, pos);
+	}
+
+	/**
+	 * Exactly one of seq and buf is used
+	 */
+	private static int parse(CharSequence seq, byte buf[], int start, int end, Position pos)
+	{
+		pos.clear();
+		try {
+			return parseFields(seq, buf, start, end, pos);
+		}
+		catch (IllegalArgumentException e) {
+			pos.clear();
+			throw e;
+		}
+	}
+
+	private static int parseFields(CharSequence seq, byte buf[], int start, int end, Position pos)
+	{
+		int i = skipSpaces(seq, buf, start, end);
+
+		// 1. Piece placement, from the top rank down
+		int rank = 7, file = 0;
+		for (;; i ++)
+		{
+			int ch = charAt(seq, buf, i, end);
+			if (isSpace(ch) || ch == -1)
+				break;
+			if (ch == '/')
+			{
+				if (file != FILE_N || rank == 0)
+					throw error("bad rank " + (rank + 1), seq, buf, start, end);
+				-- rank;
+				file = 0;
+			}
+			else if (ch >= '1' && ch <= '8')
+			{
+				file += ch - '0';
+				if (file > FILE_N)
+					throw error("too many squares on rank " + (rank + 1), seq, buf, start, end);
+			}
+			else
+			{
+				int piece = PIECE_CHARS.indexOf(ch | 0x20); // lower case
+				if (piece <= NON || file >= FILE_N)
+					throw error("bad piece placement '" + (char) ch + "'", seq, buf, start, end);
+				pos.put(toSq(file, rank), ch < 'a' ? W : B, piece);
+				++ file;
+			}
+		}
+		if (rank != 0 || file != FILE_N)
+			throw error("the board must have 8 full ranks", seq, buf, start, end);
+
+		// 2. Side to move
+		i = expectSpace(seq, buf, i, end, start);
+		int turn;
+		switch (charAt(seq, buf, i ++, end))
+		{
+		case 'w': turn = W; break;
+		case 'b': turn = B; break;
+		default: throw error("side to move must be 'w' or 'b'", seq, buf, start, end);
+		}
+
+		// 3. Castling rights, '-' if none
+		i = expectSpace(seq, buf, i, end, start);
+		int castleW = 0, castleB = 0;
+		if (charAt(seq, buf, i, end) == '-')
+			++ i;
+		else
+			for (int ch; !isSpace(ch = charAt(seq, buf, i, end)) && ch != -1; i ++)
+			{
+				int side = ch < 'a' ? W : B;
+				int right;
+				switch (ch | 0x20)
+				{
+				case 'k': right = 1; break;
+				case 'q': right = 2; break;
+				default: throw error("bad castling rights '" + (char) ch + "'", seq, buf, start, end);
+				}
+				if (((side == W ? castleW : castleB) & right) != 0)
+					throw error("repeated castling right", seq, buf, start, end);
+				if (side == W)
+					castleW |= right;
+				else
+					castleB |= right;
+			}
+
+		// 4. En passant target square, '-' if none
+		i = expectSpace(seq, buf, i, end, start);
+		int ep = -1;
+		int ch = charAt(seq, buf, i ++, end);
+		if (ch != '-')
+		{
+			int epFile = ch - 'a', epRank = charAt(seq, buf, i ++, end) - '1';
+			if (!onBoard(epFile, epRank) || epRank != (turn == W ? 5 : 2))
+				throw error("bad en passant square", seq, buf, start, end);
+			ep = toSq(epFile, epRank);
+			// The pawn just pushed two squares, through ep
+			int up = turn == W ? 8 : -8;
+			if (!has(pos.pieces(turn ^ 1, PAWN), ep - up) || !pos.isEmpty(ep) || !pos.isEmpty(ep + up))
+				throw error("en passant square without a double pushed pawn", seq, buf, start, end);
+		}
+		i = endOfField(seq, buf, i, end, start);
+
+		// 5, 6. Clocks: present only if numeric, EPD operations come instead
+		int halfMove = 0, fullMove = 1;
+		int j = skipSpaces(seq, buf, i, end);
+		if (isDigit(charAt(seq, buf, j, end)))
+		{
+			for (; isDigit(ch = charAt(seq, buf, j, end)); j ++)
+				if ((halfMove = halfMove * 10 + ch - '0') > 0xFFFF)
+					throw error("half move clock out of range", seq, buf, start, end);
+			i = endOfField(seq, buf, j, end, start);
+
+			j = skipSpaces(seq, buf, i, end);
+			if (isDigit(charAt(seq, buf, j, end)))
+			{
+				fullMove = 0;
+				for (; isDigit(ch = charAt(seq, buf, j, end)); j ++)
+					if ((fullMove = fullMove * 10 + ch - '0') > 0xFFFF)
+						throw error("full move number out of range", seq, buf, start, end);
+				i = endOfField(seq, buf, j, end, start);
+				// Some writers start from 0
+				fullMove = Math.max(fullMove, 1);
+			}
+		}
+
+		pos.setState(turn, castleW, castleB, ep, halfMove, fullMove);
+		String illegal = pos.validate();
+		if (illegal != null)
+			throw error(illegal, seq, buf, start, end);
+		return i;
+	}
+
+	/**
+	 * Character at i, -1 past the end
+	 */
+	private static int charAt(CharSequence seq, byte buf[], int i, int end)
+	{
+		if (i >= end)	return -1;
+		return seq != null ? seq.charAt(i) : buf[i] & 0xFF;
+	}
+
+	private static boolean isDigit(int ch) {	return ch >= '0' && ch <= '9';	}
+
+	private static boolean isSpace(int ch) {	return ch == ' ' || ch == '\t';	}
+
+	private static int skipSpaces(CharSequence seq, byte buf[], int i, int end)
+	{
+		while (isSpace(charAt(seq, buf, i, end)))	++ i;
+		return i;
+	}
+
+	/**
+	 * A field separator is required before the next field
+	 */
+	private static int expectSpace(CharSequence seq, byte buf[], int i, int end, int start)
+	{
+		if (!isSpace(charAt(seq, buf, i, end)))
+			throw error(i >= end ? "missing fields" : "fields must be separated by spaces",
+					seq, buf, start, end);
+		return skipSpaces(seq, buf, i, end);
+	}
+
+	/**
+	 * A field must be followed by a separator, a line end or the end of input
+	 */
+	private static int endOfField(CharSequence seq, byte buf[], int i, int end, int start)
+	{
+		int ch = charAt(seq, buf, i, end);
+		if (ch != -1 && !isSpace(ch) && ch != '\r' && ch != '\n')
+			throw error("unexpected '" + (char) ch + "'", seq, buf, start, end);
+		return i;
+	}
+
+	/**
+	 * Only called on failure, so the message may allocate
+	 */
+	private static IllegalArgumentException error(String reason,
+			CharSequence seq, byte buf[], int start, int end)
+	{
+		String input = seq != null ? seq.subSequence(start, end).toString()
+				: new String(buf, start, end - start, StandardCharsets.US_ASCII);
+		return new IllegalArgumentException("Bad FEN (" + reason + "): " + input);
+	}
+
+
+	/******************** Writing ********************/
+	/**
+	 * Appends the full FEN (6 fields)
+	 */
+	public static StringBuilder write(Position pos, StringBuilder sb)
+	{
+		writeEpd(pos, sb);
+		return sb.append(' ').append(pos.getHalfMove()).append(' ').append(pos.getFullMove());
+	}
+
+	/**
+	 * Appends the 4 position fields of an EPD record, without operations
+	 */
+	public static StringBuilder writeEpd(Position pos, StringBuilder sb)
+	{
+		for (int rank = 7; rank >= 0; rank --)
+		{
+			int empty = 0;
+			for (int file = 0; file < FILE_N; file ++)
+			{
+				int sq = toSq(file, rank);
+				int piece = pos.getPiece(sq);
+				if (piece == NON)
+				{
+					++ empty;
+					continue;
+				}
+				if (empty > 0)
+				{
+					sb.append((char) ('0' + empty));
+					empty = 0;
+				}
+				char ch = PIECE_CHARS.charAt(piece);
+				sb.append(pos.isWhite(sq) ? (char) (ch - 0x20) : ch);
+			}
+			if (empty > 0)
+				sb.append((char) ('0' + empty));
+			if (rank > 0)
+				sb.append('/');
+		}
+
+		sb.append(pos.getTurn() == W ? " w " : " b ");
+
+		int white = pos.getCastleRights(W), black = pos.getCastleRights(B);
+		if ((white | black) == 0)
+			sb.append('-');
+		if ((white & 1) != 0)	sb.append('K');
+		if ((white & 2) != 0)	sb.append('Q');
+		if ((black & 1) != 0)	sb.append('k');
+		if ((black & 2) != 0)	sb.append('q');
+
+		sb.append(' ');
+		int ep = pos.getEpSq();
+		if (ep < 0)
+			sb.append('-');
+		else
+			sb.append((char) ('a' + file(ep))).append((char) ('1' + rank(ep)));
+		return sb;
+	}
+
+	/**
+	 * The full FEN as a new String
+	 */
+	public static String toString(Position pos)
+	{
+		return write(pos, new StringBuilder(90)).toString();
+	}
+}
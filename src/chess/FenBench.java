@@ -0,0 +1,155 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * FEN/EPD throughput benchmark (headless), in positions per second.
+ * Without arguments, random game positions are generated, then parsed from bytes,
+ * parsed from a CharSequence and written back, checking the round trip.
+ * With an EPD or FEN file (one record per line), its lines are parsed.
+ *
+ * java -cp bin chess.FenBench [positions | file.epd]
+ */
+public class FenBench
+{
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Positions from seeded random games, one FEN per line
+	 */
+	private static byte[] randomGames(int count)
+	{
+		Random random = new Random(2014);
+		MoveList list = new MoveList();
+		Position pos = new Position();
+		StringBuilder sb = new StringBuilder(count * 64);
+		while (count > 0)
+		{
+			pos.clear();
+			Fen.parse(Position.FEN_START, pos);
+			for (int ply = 0; ply < 200 && count > 0; ply++)
+			{
+				if (MoveGen.generate(pos, list) == 0)	break;
+				pos.makeMove(list.moves[random.nextInt(list.size)]);
+				Fen.write(pos, sb).append('\n');
+				-- count;
+			}
+		}
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static void report(String what, long positions, long nanos)
+	{
+		System.out.printf("%-24s %,12d positions  %6d ms  %,12d positions/s%n",
+				what, positions, nanos / 1000000, positions * 1000000000L / Math.max(nanos, 1));
+	}
+
+	/**
+	 * Parses every line of buf
+	 * @return number of positions, malformed lines are counted negative
+	 */
+	private static long parseLines(byte buf[], Position pos, boolean verbose)
+	{
+		long ok = 0, bad = 0;
+		for (int start = 0; start < buf.length; )
+		{
+			int end = start;
+			while (end < buf.length && buf[end] != '\n')	++ end;
+			int next = end + 1;
+			if (end > start && buf[end - 1] == '\r')	-- end;
+			if (end > start)
+			{
+				try {
+					Fen.parse(buf, start, end - start, pos);
+					++ ok;
+				}
+				catch (IllegalArgumentException e) {
+					if (verbose && bad < 10)
+						System.out.println(e.getMessage());
+					++ bad;
+				}
+			}
+			start = next;
+		}
+		return bad == 0 ? ok : -bad;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		Position pos = new Position();
+
+		if (args.length > 0 && !args[0].matches("\\d+")) // an EPD file
+		{
+			byte buf[] = Files.readAllBytes(Paths.get(args[0]));
+			for (int round = 0; round < ROUNDS; round++)
+			{
+				long start = System.nanoTime();
+				long n = parseLines(buf, pos, round == 0);
+				report("parse " + args[0], Math.abs(n), System.nanoTime() - start);
+			}
+			return;
+		}
+
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		byte buf[] = randomGames(count);
+		String text = new String(buf, StandardCharsets.US_ASCII);
+
+		// Round trip: every line must read back to the same key and text
+		StringBuilder sb = new StringBuilder(128);
+		for (int start = 0; start < text.length(); )
+		{
+			int end = text.indexOf('\n', start);
+			Fen.parse(text, start, end, pos);
+			sb.setLength(0);
+			Fen.write(pos, sb);
+			if (pos.getKey() != pos.computeKey() || !text.regionMatches(start, sb.toString(), 0, end - start))
+			{
+				System.out.println("Round trip MISMATCH: " + text.substring(start, end) + " -> " + sb);
+				System.exit(1);
+			}
+			start = end + 1;
+		}
+		System.out.println("Round trip OK");
+
+		// Positions to write, cycled
+		Position pool[] = new Position[1024];
+		for (int i = 0, start = 0; i < pool.length && start < text.length(); i++)
+		{
+			int end = text.indexOf('\n', start);
+			pool[i] = new Position(text.subSequence(start, end));
+			start = end + 1;
+		}
+		int poolSize = Math.min(pool.length, count);
+
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			long n = parseLines(buf, pos, false);
+			report("parse bytes", n, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			n = 0;
+			for (int i = 0; i < text.length(); n++)
+			{
+				int end = text.indexOf('\n', i);
+				Fen.parse(text, i, end, pos);
+				i = end + 1;
+			}
+			report("parse CharSequence", n, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int i = 0; i < count; i++)
+			{
+				sb.setLength(0);
+				Fen.write(pool[i % poolSize], sb);
+			}
+			report("write", count, System.nanoTime() - start);
+			System.out.println();
+		}
+	}
+}
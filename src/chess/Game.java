@@ -0,0 +1,116 @@
+package chess;
+
+import static chess.Position.*;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * One game of chess without a scene: the position, its move history and its result.
+ * Knows nothing of jME, costs a Position and a move list, and shares nothing
+ * mutable with other games, so a server can host hundreds of them at once
+ * (one thread per game at a time, see MultiGame).
+ * The Board shows one game at a time through a BoardManager.
+ */
+public class Game
+{
+	// Game states, see getStatus()
+	public static final int PLAYING = 0, CHECKMATE = 1, STALEMATE = 2,
+			REPETITION = 3, FIFTY_MOVES = 4;
+	private static final String STATUS_NAMES[] = {"Playing", "Checkmate", "Stalemate",
+			"Draw by threefold repetition", "Draw by the fifty move rule"};
+
+	private final Position position;
+	// Scratch list for legal move lookups
+	private final MoveList moveList = new MoveList();
+
+	/**
+	 * A game from the standard starting position
+	 */
+	public Game() {	this(FEN_START);	}
+
+	/**
+	 * @throws IllegalArgumentException if the FEN is malformed
+	 */
+	public Game(String fen)
+	{
+		this.position = new Position(fen);
+	}
+
+	/**
+	 * The rules core of this game. Its history is the game's moves
+	 */
+	public Position getPosition() {	return this.position;	}
+
+	/**
+	 * Zobrist key of the current position
+	 */
+	public long getKey() {	return position.getKey();	}
+
+	public int getTurn() {	return position.getTurn();	}
+
+	/**
+	 * Number of moves played by both sides
+	 */
+	public int getPlies() {	return position.getHistorySize();	}
+
+	/**
+	 * The legal move from sq1 to sq2 for the side to move
+	 * @param promo promotion piece, NON for a queen
+	 * @return Move.NULL if there's none
+	 */
+	public int findMove(int sq1, int sq2, int promo)
+	{
+		return MoveGen.find(position, moveList, sq1, sq2, promo);
+	}
+
+	/**
+	 * Bitboard of the legal target squares of the piece on sq,
+	 * 0 if it isn't the side to move's
+	 */
+	public long targets(int sq)
+	{
+		return MoveGen.targets(position, moveList, sq);
+	}
+
+	/**
+	 * The legal move in coordinate notation, e.g. "e2e4"
+	 * @return Move.NULL if malformed or illegal
+	 */
+	public int parseMove(CharSequence s)
+	{
+		return Move.parse(position, moveList, s);
+	}
+
+	/**
+	 * Plays a legal move, see findMove()
+	 */
+	public void play(int move)
+	{
+		position.makeMove(move);
+	}
+
+	/**
+	 * Takes back the last move
+	 * @return the move taken back, Move.NULL if there's none
+	 */
+	public int takeBack()
+	{
+		return position.getHistorySize() == 0 ? Move.NULL : position.unmakeMove();
+	}
+
+	/**
+	 * Is the game over, and how? Mate takes precedence over the draw rules
+	 * @return PLAYING, CHECKMATE, STALEMATE, REPETITION or FIFTY_MOVES
+	 */
+	public int getStatus()
+	{
+		if (MoveGen.generate(position, moveList) == 0)
+			return position.inCheck() ? CHECKMATE : STALEMATE;
+		if (position.repetitions() >= 2)
+			return REPETITION;
+		if (position.isFiftyMoves())
+			return FIFTY_MOVES;
+		return PLAYING;
+	}
+
+	public static String statusName(int status) {	return STATUS_NAMES[status];	}
+}
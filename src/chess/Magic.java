@@ -0,0 +1,336 @@
+package chess;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Magic bitboards: bishop and rook attacks by table lookup.
+ *
+ * The relevant blockers of a square are multiplied by a "magic" number,
+ * and the top bits of the product index that square's slice of one shared
+ * table (fancy magics, about 840 KB for both pieces).
+ * The magics were found by a random search from a fixed seed and are built in
+ * below, so class load only fills the table. main() runs the search again
+ * to regenerate them. Other magics can be read from a small binary file:
+ * run with -Dexcalilux.magics=file, see main().
+ */
+public final class Magic
+{
+	private Magic() {}
+
+	private static final int ROOK_INDEX = 0, BISHOP_INDEX = 1;
+
+	// [ROOK_INDEX or BISHOP_INDEX][sq]
+	private static final long MASK[][] = new long[2][SQ_N];
+	private static final long MAGIC[][] = new long[2][SQ_N];
+	private static final int SHIFT[][] = new int[2][SQ_N];
+	private static final int OFFSET[][] = new int[2][SQ_N];
+	// Attack sets of all squares and both pieces
+	private static final long ATTACKS[];
+
+	// Cache file format
+	private static final int FILE_TAG = 0x45584D47; // "EXMG"
+	private static final int FILE_VERSION = 1;
+
+	// Fixed seed: the same magics on every run
+	private static long seed = 0x2545F4914F6CDD1DL;
+
+	// Found from the seed, printed by main(). [ROOK_INDEX or BISHOP_INDEX][sq]
+	private static final long BUILT_IN[][] = {
+	{
+		0x008000908064C000L, 0x0040200040001000L, 0x0180100080A0010AL, 0x8880041000800800L,
+		0x1200100201200804L, 0x0200020004011008L, 0x2180010000800600L, 0x0200005088210204L,
+		0x0400800040008021L, 0x0400400020005000L, 0x8240801000200080L, 0x8611001004200900L,
+		0x008180800C001800L, 0x0100800200800400L, 0x0A02000102000408L, 0x8020802300104280L,
+		0x0080004000402000L, 0xE010104000402000L, 0x0800808010002000L, 0xA280210008100100L,
+		0x0001818014000800L, 0xA002010100080400L, 0x0080240001020870L, 0x0001020004048845L,
+		0x0081826280004004L, 0x2020810900284000L, 0x0200100080802000L, 0x0200080080100080L,
+		0x8083080100100500L, 0x4406000901000400L, 0x0005020080800100L, 0x0090204200008114L,
+		0x0010400094800420L, 0x0900804000802002L, 0x0201001841002000L, 0x4100080080801000L,
+		0x4540040080800800L, 0x0002001004040020L, 0x0281195814001002L, 0x1240800040800100L,
+		0x0880042000524004L, 0x02C080410206002CL, 0x0801200241050010L, 0x8400080010008080L,
+		0x0008000500090010L, 0x0082009084020008L, 0x4012000108020004L, 0x9000104D08860004L,
+		0x2004204114800100L, 0x0148802112400300L, 0x0202842000100880L, 0x001B080080900080L,
+		0x001A002008100600L, 0x0004008004020080L, 0x5181000600040300L, 0x0000044401128A00L,
+		0x8044110480002441L, 0x2008110084402202L, 0x90806005090010C1L, 0x000420310A004A42L,
+		0x0023001004020801L, 0x0882001008040102L, 0x000230088118020CL, 0x0000019025040042L
+	},
+	{
+		0x0045010808008680L, 0x2002080204004898L, 0x0210009A10400006L, 0x0824050200810200L,
+		0x0006061105004090L, 0x00010108C0000000L, 0x0814040282104004L, 0x0012012201106800L,
+		0x10823014100C1040L, 0x0080C2088802808CL, 0x0281108410404000L, 0x0101212041826200L,
+		0x0020141028221058L, 0x2201020202200202L, 0x000082A801482000L, 0x0000008401411044L,
+		0x0007103014300404L, 0x0002091110010100L, 0x42140012040C0808L, 0x0800808802004020L,
+		0x90C4004210140000L, 0x0800200900A01000L, 0x00D0400201108810L, 0x80820183814412A0L,
+		0x00A01008202202B4L, 0x01C2021A09500402L, 0x0084440208042400L, 0x800400400C090100L,
+		0xBA10040010802100L, 0xD182009006005000L, 0x5011021001009004L, 0x0020420200510400L,
+		0x0292104000468800L, 0x00043009091C0500L, 0x0280441000020025L, 0x0042820080080080L,
+		0x0440101010010040L, 0x1000900100808080L, 0x0108108120089800L, 0x0044010200012682L,
+		0xC002500420900400L, 0x0040482210710800L, 0x0002060024000200L, 0x0281020A44000800L,
+		0xA0021200A4000200L, 0x0001301000840840L, 0x2868500108444220L, 0x0004111041000200L,
+		0x8044020842080200L, 0x0000220104210200L, 0x0000021201044000L, 0x0000280884040028L,
+		0x4012114010858003L, 0x0000081004082B88L, 0x3892700508208002L, 0x00220A041B060400L,
+		0x0812020284014881L, 0x010434A282103100L, 0x0490400824020800L, 0x4A20002C00208800L,
+		0x000000A011020200L, 0x4002940A02482202L, 0x5100100202140406L, 0x02102000840540C1L
+	}};
+
+	// Where the magics came from and how long it took, for reporting
+	private static String origin;
+
+	static
+	{
+		int size = 0;
+		for (int p = ROOK_INDEX; p <= BISHOP_INDEX; p++)
+			for (int sq = 0; sq < SQ_N; sq++)
+			{
+				MASK[p][sq] = relevantBlockers(p, sq);
+				int bits = popCount(MASK[p][sq]);
+				SHIFT[p][sq] = 64 - bits;
+				OFFSET[p][sq] = size;
+				size += 1 << bits;
+			}
+		ATTACKS = new long[size];
+
+		long start = System.nanoTime();
+		String cache = System.getProperty("excalilux.magics");
+		if (cache != null && load(new File(cache)))
+			origin = "loaded from " + cache;
+		else if (useBuiltIn())
+			origin = "built in";
+		else
+		{
+			// Only if the masks changed and the built in magics are outdated
+			findAll();
+			origin = "searched";
+		}
+		origin += " in " + (System.nanoTime() - start) / 1000000 + " ms";
+	}
+
+
+	/******************** Lookup ********************/
+	public static long bishopAttacks(int sq, long occ)
+	{
+		return ATTACKS[OFFSET[BISHOP_INDEX][sq] + (int) ((occ & MASK[BISHOP_INDEX][sq])
+				* MAGIC[BISHOP_INDEX][sq] >>> SHIFT[BISHOP_INDEX][sq])];
+	}
+
+	public static long rookAttacks(int sq, long occ)
+	{
+		return ATTACKS[OFFSET[ROOK_INDEX][sq] + (int) ((occ & MASK[ROOK_INDEX][sq])
+				* MAGIC[ROOK_INDEX][sq] >>> SHIFT[ROOK_INDEX][sq])];
+	}
+
+
+	/******************** Table building ********************/
+	/**
+	 * Squares whose occupancy matters: the rays without the board edge
+	 */
+	private static long relevantBlockers(int p, int sq)
+	{
+		long all = slowAttacks(p, sq, 0);
+		long edges = ((RANK_1 | RANK_8) & ~RANKS[rank(sq)])
+				| ((FILE_A | FILE_H) & ~FILES[file(sq)]);
+		return all & ~edges;
+	}
+
+	/**
+	 * Ray walking attacks, the reference for the tables
+	 */
+	private static long slowAttacks(int p, int sq, long occ)
+	{
+		return p == ROOK_INDEX ?
+				rayAttacks(RAY_N, sq, occ) | rayAttacks(RAY_S, sq, occ)
+				| rayAttacks(RAY_E, sq, occ) | rayAttacks(RAY_W, sq, occ) :
+				rayAttacks(RAY_NE, sq, occ) | rayAttacks(RAY_NW, sq, occ)
+				| rayAttacks(RAY_SE, sq, occ) | rayAttacks(RAY_SW, sq, occ);
+	}
+
+	/**
+	 * xorshift64* generator
+	 */
+	private static long nextRandom()
+	{
+		seed ^= seed >>> 12;
+		seed ^= seed << 25;
+		seed ^= seed >>> 27;
+		return seed * 2685821657736338717L;
+	}
+
+	private static void findAll()
+	{
+		// Every blocker subset of one square and its attacks, reused
+		long subsets[] = new long[1 << 12];
+		long attacks[] = new long[1 << 12];
+		for (int p = ROOK_INDEX; p <= BISHOP_INDEX; p++)
+			for (int sq = 0; sq < SQ_N; sq++)
+			{
+				long mask = MASK[p][sq];
+				int n = subsets(p, sq, subsets, attacks);
+				do {
+					// Sparse random numbers make good magics
+					MAGIC[p][sq] = nextRandom() & nextRandom() & nextRandom();
+				} while (popCount((mask * MAGIC[p][sq]) >>> 56) < 6
+						|| !fill(p, sq, subsets, attacks, n));
+			}
+	}
+
+	/**
+	 * All blocker subsets of one square and their attacks
+	 * @return number of subsets
+	 */
+	private static int subsets(int p, int sq, long subsets[], long attacks[])
+	{
+		int n = 0;
+		long mask = MASK[p][sq];
+		// Carry-Rippler: enumerates all subsets of the mask
+		long sub = 0;
+		do {
+			subsets[n] = sub;
+			attacks[n ++] = slowAttacks(p, sq, sub);
+			sub = (sub - mask) & mask;
+		} while (sub != 0);
+		return n;
+	}
+
+	/**
+	 * Fills the table slice of one square with its current magic
+	 * @return false on a collision between different attack sets
+	 */
+	private static boolean fill(int p, int sq, long subsets[], long attacks[], int n)
+	{
+		int offset = OFFSET[p][sq];
+		int size = 1 << (64 - SHIFT[p][sq]);
+		for (int i = 0; i < size; i++)
+			ATTACKS[offset + i] = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int index = offset + (int) (subsets[i] * MAGIC[p][sq] >>> SHIFT[p][sq]);
+			// No attack set is empty, so 0 means a free slot
+			if (ATTACKS[index] == 0)
+				ATTACKS[index] = attacks[i];
+			else if (ATTACKS[index] != attacks[i])
+				return false;
+		}
+		return true;
+	}
+
+
+	/******************** Cache file ********************/
+	/**
+	 * Writes the magics, not the table: filling it is cheap
+	 */
+	public static void save(File file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(FILE_TAG);
+			out.writeInt(FILE_VERSION);
+			for (int p = ROOK_INDEX; p <= BISHOP_INDEX; p++)
+				for (int sq = 0; sq < SQ_N; sq++)
+					out.writeLong(MAGIC[p][sq]);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the magics and fills the table, checking every magic
+	 * @return false if the file is missing, outdated or broken
+	 */
+	private static boolean load(File file)
+	{
+		if (!file.isFile())	return false;
+		try {
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != FILE_TAG || in.readInt() != FILE_VERSION)
+					return false;
+				for (int p = ROOK_INDEX; p <= BISHOP_INDEX; p++)
+					for (int sq = 0; sq < SQ_N; sq++)
+						MAGIC[p][sq] = in.readLong();
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+		return fillAll();
+	}
+
+	/**
+	 * Fills the table with the built in magics
+	 * @return false if one of them doesn't work
+	 */
+	private static boolean useBuiltIn()
+	{
+		for (int p = ROOK_INDEX; p <= BISHOP_INDEX; p++)
+			System.arraycopy(BUILT_IN[p], 0, MAGIC[p], 0, SQ_N);
+		return fillAll();
+	}
+
+	/**
+	 * Fills the table with the current magics, checking every one
+	 * @return false on a collision
+	 */
+	private static boolean fillAll()
+	{
+		long subsets[] = new long[1 << 12];
+		long attacks[] = new long[1 << 12];
+		for (int p = ROOK_INDEX; p <= BISHOP_INDEX; p++)
+			for (int sq = 0; sq < SQ_N; sq++)
+			{
+				int n = subsets(p, sq, subsets, attacks);
+				if (!fill(p, sq, subsets, attacks, n))
+					return false;
+			}
+		return true;
+	}
+
+	/**
+	 * Reports where the magics came from. With "search", searches them again
+	 * from the seed, prints them as the source of BUILT_IN and writes them
+	 * to a cache file if one is given
+	 * java -cp bin chess.Magic [search [file]]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		System.out.println("Magics " + origin + ", table " + ATTACKS.length * 8 / 1024 + " KB");
+		if (args.length == 0 || !args[0].equals("search"))	return;
+
+		long start = System.nanoTime();
+		findAll();
+		System.out.println("Searched in " + (System.nanoTime() - start) / 1000000 + " ms");
+		for (int p = ROOK_INDEX; p <= BISHOP_INDEX; p++)
+		{
+			System.out.println("\t{");
+			for (int sq = 0; sq < SQ_N; sq++)
+			{
+				System.out.printf("%s0x%016XL%s", sq % 4 == 0 ? "\t\t" : " ",
+						MAGIC[p][sq], sq < SQ_N - 1 ? "," : "");
+				if (sq % 4 == 3)	System.out.println();
+			}
+			System.out.println(p == ROOK_INDEX ? "\t}," : "\t}};");
+		}
+		if (args.length > 1)
+		{
+			save(new File(args[1]));
+			System.out.println("Saved to " + args[1]
+					+ ", run with -Dexcalilux.magics=" + args[1]);
+		}
+	}
+}
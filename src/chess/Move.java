@@ -0,0 +1,92 @@
+package chess;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * A move packed into a single int, so that move lists stay primitive.
+ * bits 0-5: from square, 6-11: to square, 12-14: promotion piece, 15-16: flag
+ */
+public final class Move
+{
+	private Move() {}
+
+	// Move flags
+	public static final int NORMAL = 0,
+			CASTLE = 1,  // encoded as the king move, e.g. e1g1
+			EN_PASSANT = 2,
+			PROMOTION = 3;
+
+	// No move. from == to == a1 can never be a real move
+	public static final int NULL = 0;
+
+	public static int make(int from, int to)
+	{
+		return from | to << 6;
+	}
+
+	public static int make(int from, int to, int flag)
+	{
+		return from | to << 6 | flag << 15;
+	}
+
+	public static int makePromotion(int from, int to, int promo)
+	{
+		return from | to << 6 | promo << 12 | PROMOTION << 15;
+	}
+
+	public static int from(int move) {	return move & 0x3F;	}
+
+	public static int to(int move) {	return move >>> 6 & 0x3F;	}
+
+	/**
+	 * Promotion piece type, NON if not a promotion
+	 */
+	public static int promo(int move) {	return move >>> 12 & 7;	}
+
+	public static int flag(int move) {	return move >>> 15 & 3;	}
+
+	/**
+	 * Square name like "e4"
+	 */
+	public static String sqName(int sq)
+	{
+		return "" + (char) ('a' + file(sq)) + (char) ('1' + rank(sq));
+	}
+
+	/**
+	 * Coordinate notation, e.g. "e2e4", "e7e8q"
+	 */
+	public static String toString(int move)
+	{
+		if (move == NULL)	return "0000";
+		String s = sqName(from(move)) + sqName(to(move));
+		if (flag(move) == PROMOTION)
+			s += " pnbrqk".charAt(promo(move));
+		return s;
+	}
+
+	/**
+	 * The legal move in coordinate notation, e.g. "e2e4", "e7e8q"
+	 * @param list scratch list for the legal moves
+	 * @return NULL if malformed or illegal
+	 */
+	public static int parse(Position pos, MoveList list, CharSequence s)
+	{
+		if (s.length() < 4 || s.length() > 5)	return NULL;
+		int f1 = s.charAt(0) - 'a', r1 = s.charAt(1) - '1',
+			f2 = s.charAt(2) - 'a', r2 = s.charAt(3) - '1';
+		if (!onBoard(f1, r1) || !onBoard(f2, r2))	return NULL;
+		int promo = NON;
+		if (s.length() == 5)
+		{
+			promo = " pnbrqk".indexOf(Character.toLowerCase(s.charAt(4)));
+			if (promo < KNIGHT || promo > QUEEN)	return NULL;
+		}
+		int move = MoveGen.find(pos, list, toSq(f1, r1), toSq(f2, r2), promo);
+		// find() defaults to a queen, a promotion must be spelled out
+		if (flag(move) == PROMOTION && promo == NON)	return NULL;
+		return move;
+	}
+}
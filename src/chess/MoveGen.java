@@ -0,0 +1,212 @@
+package chess;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Legal move generator. Pins and checks are resolved with bitboard masks,
+ * so every generated move is legal and no make/test/undo is needed.
+ * Never allocates: moves go into a caller-owned MoveList.
+ */
+public final class MoveGen
+{
+	private MoveGen() {}
+
+	/**
+	 * All legal moves of the side to move
+	 * @return number of moves
+	 */
+	public static int generate(Position pos, MoveList list)
+	{
+		list.clear();
+		generate(pos, list, true);
+		return list.size;
+	}
+
+	/**
+	 * Legal captures and queen promotions only, for quiescence search
+	 * @return number of moves
+	 */
+	public static int generateCaptures(Position pos, MoveList list)
+	{
+		list.clear();
+		generate(pos, list, false);
+		return list.size;
+	}
+
+	/**
+	 * Finds the legal move from one square to another, NULL if none.
+	 * @param promo promotion piece, NON defaults to a queen
+	 */
+	public static int find(Position pos, MoveList list, int from, int to, int promo)
+	{
+		if (promo == NON)	promo = QUEEN;
+		generate(pos, list);
+		for (int i = 0; i < list.size; i++)
+		{
+			int m = list.moves[i];
+			if (Move.from(m) == from && Move.to(m) == to
+					&& (Move.flag(m) != Move.PROMOTION || Move.promo(m) == promo))
+				return m;
+		}
+		return Move.NULL;
+	}
+
+	/**
+	 * Bitboard of all legal target squares of the piece on sq
+	 */
+	public static long targets(Position pos, MoveList list, int sq)
+	{
+		generate(pos, list);
+		long mask = 0;
+		for (int i = 0; i < list.size; i++)
+			if (Move.from(list.moves[i]) == sq)
+				mask |= bit(Move.to(list.moves[i]));
+		return mask;
+	}
+
+	private static void generate(Position pos, MoveList list, boolean quiets)
+	{
+		int us = pos.getTurn(), them = us ^ 1;
+		long ours = pos.occupancy(us), theirs = pos.occupancy(them);
+		long occ = pos.occupied();
+		int ksq = pos.kingSq(us);
+		long targetMask = quiets ? ~ours : theirs;
+
+		long checkers = pos.attackersTo(ksq, occ) & theirs;
+
+		// King: the target must not be attacked once the king has left ksq
+		long occNoKing = occ ^ bit(ksq);
+		for (long bb = KING_ATTACKS[ksq] & targetMask; bb != 0; bb = popLsb(bb))
+		{
+			int to = lsb(bb);
+			if ((pos.attackersTo(to, occNoKing) & theirs) == 0)
+				list.add(Move.make(ksq, to));
+		}
+
+		// Double check: only the king can move
+		if (popLsb(checkers) != 0)
+			return;
+
+		// Single check: capture the checker or block the line
+		long checkMask = checkers == 0 ? ~0L : checkers | BETWEEN[ksq][lsb(checkers)];
+		targetMask &= checkMask;
+		long pinned = pos.pinned(us);
+
+		// A pinned knight can never move
+		for (long bb = pos.pieces(us, KNIGHT) & ~pinned; bb != 0; bb = popLsb(bb))
+		{
+			int from = lsb(bb);
+			addMoves(list, from, KNIGHT_ATTACKS[from] & targetMask);
+		}
+
+		for (int piece = BISHOP; piece <= QUEEN; piece++)
+			for (long bb = pos.pieces(us, piece); bb != 0; bb = popLsb(bb))
+			{
+				int from = lsb(bb);
+				long att = attacks(piece, us, from, occ) & targetMask;
+				// A pinned slider stays on the pin line
+				if (has(pinned, from))
+					att &= LINE[ksq][from];
+				addMoves(list, from, att);
+			}
+
+		generatePawns(pos, list, quiets, us, ksq, checkMask, pinned);
+
+		if (quiets && checkers == 0)
+			generateCastles(pos, list, us);
+	}
+
+	private static void addMoves(MoveList list, int from, long targets)
+	{
+		for (; targets != 0; targets = popLsb(targets))
+			list.add(Move.make(from, lsb(targets)));
+	}
+
+	private static void generatePawns(Position pos, MoveList list, boolean quiets,
+			int us, int ksq, long checkMask, long pinned)
+	{
+		int them = us ^ 1;
+		long occ = pos.occupied();
+		long theirs = pos.occupancy(them);
+		int up = us == W ? 8 : -8;
+		long startRank = us == W ? RANK_2 : RANK_7;
+		long promoRank = us == W ? RANK_8 : RANK_1;
+		int ep = pos.getEpSq();
+
+		for (long bb = pos.pieces(us, PAWN); bb != 0; bb = popLsb(bb))
+		{
+			int from = lsb(bb);
+			long pinMask = has(pinned, from) ? LINE[ksq][from] : ~0L;
+
+			long targets = PAWN_ATTACKS[us][from] & theirs;
+			int to1 = from + up; // a pawn is never on its last rank
+			if (!has(occ, to1))
+			{
+				// Quiet pushes are generated only when asked for, except promotions
+				if (quiets || has(promoRank, to1))
+					targets |= bit(to1);
+				if (quiets && has(startRank, from) && !has(occ, to1 + up))
+					targets |= bit(to1 + up);
+			}
+			targets &= checkMask & pinMask;
+
+			for (; targets != 0; targets = popLsb(targets))
+			{
+				int to = lsb(targets);
+				if (has(promoRank, to))
+				{
+					list.add(Move.makePromotion(from, to, QUEEN));
+					if (quiets)
+					{
+						list.add(Move.makePromotion(from, to, KNIGHT));
+						list.add(Move.makePromotion(from, to, ROOK));
+						list.add(Move.makePromotion(from, to, BISHOP));
+					}
+				}
+				else
+					list.add(Move.make(from, to));
+			}
+
+			if (ep >= 0 && has(PAWN_ATTACKS[us][from], ep))
+			{
+				int capSq = ep - up;
+				// Evades a check only by capturing the checker or blocking
+				if ((checkMask & (bit(capSq) | bit(ep))) == 0)
+					continue;
+				// Both pawns leave the rank at once: test the king directly
+				long occAfter = occ ^ bit(from) ^ bit(capSq) | bit(ep);
+				if ((rookAttacks(ksq, occAfter)
+						& (pos.pieces(them, ROOK) | pos.pieces(them, QUEEN))) == 0
+					&& (bishopAttacks(ksq, occAfter)
+						& (pos.pieces(them, BISHOP) | pos.pieces(them, QUEEN))) == 0)
+					list.add(Move.make(from, ep, Move.EN_PASSANT));
+			}
+		}
+	}
+
+	private static void generateCastles(Position pos, MoveList list, int us)
+	{
+		int rights = pos.getCastleRights(us);
+		if (rights == 0)	return;
+
+		int them = us ^ 1;
+		int back = us == W ? 0 : 56; // a1 or a8
+		int king = back + 4;
+		long occ = pos.occupied();
+		long rooks = pos.pieces(us, ROOK);
+
+		// O-O: f and g empty and safe
+		if ((rights & 1) != 0 && has(rooks, back + 7)
+				&& (occ & (bit(back + 5) | bit(back + 6))) == 0
+				&& !pos.isAttacked(back + 5, them) && !pos.isAttacked(back + 6, them))
+			list.add(Move.make(king, back + 6, Move.CASTLE));
+
+		// O-O-O: b, c and d empty, c and d safe
+		if ((rights & 2) != 0 && has(rooks, back)
+				&& (occ & (bit(back + 1) | bit(back + 2) | bit(back + 3))) == 0
+				&& !pos.isAttacked(back + 3, them) && !pos.isAttacked(back + 2, them))
+			list.add(Move.make(king, back + 2, Move.CASTLE));
+	}
+}
@@ -0,0 +1,34 @@
+package chess;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Reusable primitive move list. Allocate once per ply and clear() it,
+ * never create one inside a search or perft loop.
+ */
+public final class MoveList
+{
+	// No legal chess position has more than 218 moves
+	public static final int MAX_MOVES = 256;
+
+	public final int moves[] = new int[MAX_MOVES];
+	public int size;
+
+	public void clear() {	size = 0;	}
+
+	public void add(int move) {	moves[size++] = move;	}
+
+	public int get(int i) {	return moves[i];	}
+
+	public int size() {	return size;	}
+
+	/**
+	 * Linear scan, -1 if the move is not in the list
+	 */
+	public int indexOf(int move)
+	{
+		for (int i = 0; i < size; i++)
+			if (moves[i] == move)
+				return i;
+		return -1;
+	}
+}
@@ -0,0 +1,80 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Hosts many games in one JVM (headless), the way a game server would.
+ *
+ * Every game is a Game of its own, played to the end by one task on a
+ * shared pool: no scene, no Board, no lock between games. Moves are picked
+ * at random from the legal ones, seeded per game. Reports games and moves
+ * per second and how the games ended.
+ *
+ * java -cp bin chess.MultiGame [games] [threads]
+ */
+public class MultiGame
+{
+	// A game that goes on this long is abandoned
+	private static final int MAX_PLIES = 2000;
+
+	/**
+	 * Plays one game to the end
+	 * @return plies played
+	 */
+	private static int play(Game game, Random random, AtomicLongArray results)
+	{
+		MoveList list = new MoveList();
+		int status;
+		while ((status = game.getStatus()) == Game.PLAYING && game.getPlies() < MAX_PLIES)
+		{
+			MoveGen.generate(game.getPosition(), list);
+			game.play(list.moves[random.nextInt(list.size)]);
+		}
+		results.incrementAndGet(status);
+		return game.getPlies();
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException
+	{
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+
+		final AtomicLongArray results = new AtomicLongArray(Game.FIFTY_MOVES + 1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> plies = new ArrayList<Future<Integer>>(games);
+		long start = System.nanoTime();
+		for (int i = 0; i < games; i++)
+		{
+			final Game game = new Game();
+			final Random random = new Random(i);
+			plies.add(pool.submit(new Callable<Integer>()
+			{
+				@Override
+				public Integer call() {	return play(game, random, results);	}
+			}));
+		}
+		long moves = 0;
+		for (Future<Integer> f : plies)
+			moves += f.get();
+		long nanos = Math.max(System.nanoTime() - start, 1);
+		pool.shutdown();
+
+		System.out.printf("%,d games on %d thread(s): %,d moves  %d ms%n",
+				games, threads, moves, nanos / 1000000);
+		System.out.printf("%,d games/s  %,d moves/s%n",
+				games * 1000000000L / nanos, moves * 1000000000L / nanos);
+		for (int s = Game.CHECKMATE; s <= Game.FIFTY_MOVES; s++)
+			System.out.printf("   %-30s %,d%n", Game.statusName(s), results.get(s));
+		System.out.printf("   %-30s %,d%n", "Abandoned", results.get(Game.PLAYING));
+	}
+}
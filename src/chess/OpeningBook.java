@@ -0,0 +1,248 @@
+package chess;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Polyglot opening book (.bin), memory-mapped and searched in place.
+ *
+ * A book is a file of 16-byte big-endian entries sorted by position key:
+ * key (8 bytes), move (2), weight (2), learn (4). The file is never read
+ * into the heap; the OS pages in the few blocks a binary search touches.
+ *
+ * Polyglot keys are Zobrist keys built from the 781 standard "Random64"
+ * numbers of the Polyglot book format, which are not shipped with ExcaliLux:
+ * the keys file holds them, as hex numbers in text (e.g. the C array
+ * from the format description) or as 6248 raw big-endian bytes.
+ */
+public class OpeningBook
+{
+	private static final int ENTRY_BYTES = 16;
+	// Mapped in 1 GB chunks, a single MappedByteBuffer stops at 2 GB
+	private static final int CHUNK_SHIFT = 26, CHUNK_ENTRIES = 1 << CHUNK_SHIFT;
+
+	// Random64 layout
+	private static final int KEY_N = 781,
+			KEY_CASTLE = 768,
+			KEY_EP = 772,
+			KEY_TURN = 780;
+	// Polyglot key of the start position, checks the keys file
+	private static final long START_KEY = 0x463B96181691FC9CL;
+
+	private final long keys[];
+	private final MappedByteBuffer chunks[];
+	private final long size; // number of entries
+
+	private final Random random = new Random();
+
+	/**
+	 * Maps the book file
+	 * @param keysFile the Polyglot Random64 numbers, see above
+	 * @throws IOException if a file can't be read or the keys are wrong
+	 */
+	public OpeningBook(File bookFile, File keysFile) throws IOException
+	{
+		this.keys = loadKeys(keysFile);
+
+		RandomAccessFile raf = new RandomAccessFile(bookFile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			this.size = channel.size() / ENTRY_BYTES;
+			int n = (int) ((size + CHUNK_ENTRIES - 1) >>> CHUNK_SHIFT);
+			this.chunks = new MappedByteBuffer[n];
+			for (int i = 0; i < n; i++)
+			{
+				long first = (long) i << CHUNK_SHIFT;
+				long count = Math.min(CHUNK_ENTRIES, size - first);
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						first * ENTRY_BYTES, count * ENTRY_BYTES);
+			}
+		}
+		finally {
+			// The mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads the 781 Random64 numbers, text or binary
+	 */
+	private static long[] loadKeys(File file) throws IOException
+	{
+		byte bytes[] = Files.readAllBytes(file.toPath());
+		long keys[] = new long[KEY_N];
+		if (bytes.length == KEY_N * 8)
+			ByteBuffer.wrap(bytes).asLongBuffer().get(keys);
+		else
+		{
+			Matcher m = Pattern.compile("(?:0x)?([0-9A-Fa-f]{16})")
+					.matcher(new String(bytes, StandardCharsets.US_ASCII));
+			int n = 0;
+			while (n < KEY_N && m.find())
+			{
+				String hex = m.group(1);
+				keys[n ++] = Long.parseLong(hex.substring(0, 8), 16) << 32
+						| Long.parseLong(hex.substring(8), 16);
+			}
+			if (n < KEY_N)
+				throw new IOException(file + ": " + n + " Polyglot keys, " + KEY_N + " expected");
+		}
+		if (key(keys, new Position(FEN_START)) != START_KEY)
+			throw new IOException(file + ": not the Polyglot Random64 numbers");
+		return keys;
+	}
+
+	/**
+	 * Number of entries in the book
+	 */
+	public long size() {	return this.size;	}
+
+	/**
+	 * Polyglot key of the position. Not the same as Position.getKey()
+	 */
+	public long key(Position pos) {	return key(this.keys, pos);	}
+
+	private static long key(long keys[], Position pos)
+	{
+		long k = 0;
+		for (long bb = pos.occupied(); bb != 0; bb = popLsb(bb))
+		{
+			int sq = lsb(bb);
+			// black pawn, white pawn, black knight, ... white king
+			int kind = 2 * (pos.getPiece(sq) - PAWN) + (pos.isWhite(sq) ? 1 : 0);
+			k ^= keys[64 * kind + sq];
+		}
+		for (int side = W; side < SIDE_N; side++)
+		{
+			int rights = pos.getCastleRights(side);
+			if ((rights & 1) != 0)	k ^= keys[KEY_CASTLE + 2 * side];
+			if ((rights & 2) != 0)	k ^= keys[KEY_CASTLE + 2 * side + 1];
+		}
+		// Polyglot also only counts en passant when a pawn can capture, like Position
+		if (pos.getEpSq() >= 0)
+			k ^= keys[KEY_EP + file(pos.getEpSq())];
+		if (pos.getTurn() == W)
+			k ^= keys[KEY_TURN];
+		return k;
+	}
+
+
+	/******************** Lookup ********************/
+	private long entryKey(long i)
+	{
+		return chunks[(int) (i >>> CHUNK_SHIFT)].getLong((int) (i & (CHUNK_ENTRIES - 1)) * ENTRY_BYTES);
+	}
+
+	private int entryMove(long i)
+	{
+		return chunks[(int) (i >>> CHUNK_SHIFT)].getShort((int) (i & (CHUNK_ENTRIES - 1)) * ENTRY_BYTES + 8) & 0xFFFF;
+	}
+
+	private int entryWeight(long i)
+	{
+		return chunks[(int) (i >>> CHUNK_SHIFT)].getShort((int) (i & (CHUNK_ENTRIES - 1)) * ENTRY_BYTES + 10) & 0xFFFF;
+	}
+
+	/**
+	 * Index of the first entry with the key or a greater one (unsigned)
+	 */
+	private long lowerBound(long key)
+	{
+		long lo = 0, hi = size;
+		while (lo < hi)
+		{
+			long mid = (lo + hi) >>> 1;
+			// unsigned comparison
+			if ((entryKey(mid) ^ Long.MIN_VALUE) < (key ^ Long.MIN_VALUE))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Book moves of the position, converted to legal moves
+	 * @param list scratch list for the legal moves
+	 * @param moves receives the moves, at most MoveList.MAX_MOVES
+	 * @param weights receives their weights
+	 * @return number of moves
+	 */
+	public int probe(Position pos, MoveList list, int moves[], int weights[])
+	{
+		long key = key(pos);
+		int n = 0;
+		for (long i = lowerBound(key); i < size && entryKey(i) == key && n < moves.length; i++)
+		{
+			int move = toMove(pos, list, entryMove(i));
+			if (move != Move.NULL)
+			{
+				moves[n] = move;
+				weights[n ++] = entryWeight(i);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * A book move picked at random by weight, Move.NULL if out of book
+	 */
+	public int pickMove(Position pos, MoveList list)
+	{
+		int moves[] = new int[MoveList.MAX_MOVES], weights[] = new int[MoveList.MAX_MOVES];
+		int n = probe(pos, list, moves, weights);
+		long total = 0;
+		for (int i = 0; i < n; i++)
+			total += weights[i];
+		if (total == 0)
+			return n > 0 ? moves[0] : Move.NULL;
+		long r = (long) (random.nextDouble() * total);
+		for (int i = 0; i < n; i++)
+			if ((r -= weights[i]) < 0)
+				return moves[i];
+		return moves[n - 1];
+	}
+
+	/**
+	 * Bitboard of the book target squares of the piece on sq
+	 */
+	public long targets(Position pos, MoveList list, int sq)
+	{
+		int moves[] = new int[MoveList.MAX_MOVES], weights[] = new int[MoveList.MAX_MOVES];
+		int n = probe(pos, list, moves, weights);
+		long mask = 0;
+		for (int i = 0; i < n; i++)
+			if (Move.from(moves[i]) == sq)
+				mask |= bit(Move.to(moves[i]));
+		return mask;
+	}
+
+	/**
+	 * Polyglot move: to file 0-2, to rank 3-5, from file 6-8, from rank 9-11,
+	 * promotion 12-14 (1 knight ... 4 queen). Castling is "king takes own rook".
+	 * @return the legal move, Move.NULL if the entry is bogus
+	 */
+	private static int toMove(Position pos, MoveList list, int pg)
+	{
+		int to = toSq(pg & 7, pg >>> 3 & 7);
+		int from = toSq(pg >>> 6 & 7, pg >>> 9 & 7);
+		int promo = pg >>> 12 & 7;
+		if (pos.getPiece(from) == KING && pos.getSide(to) == pos.getSide(from)
+				&& pos.getPiece(to) == ROOK)
+			to = to > from ? from + 2 : from - 2;
+		return MoveGen.find(pos, list, from, to, promo == 0 ? NON : promo + 1);
+	}
+}
@@ -0,0 +1,142 @@
+package chess;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Headless perft: counts the leaf nodes of the legal move tree.
+ * Verifies the rules core and measures its throughput.
+ * Run: java -cp bin chess.Perft [depth] [fen]
+ */
+public class Perft
+{
+	private static final int MAX_PLY = 64;
+
+	// Make/unmake on one position, one move list per ply, reused throughout
+	private final Position pos = new Position();
+	private final MoveList lists[] = new MoveList[MAX_PLY];
+
+	public Perft()
+	{
+		for (int i = 0; i < MAX_PLY; i++)
+			lists[i] = new MoveList();
+	}
+
+	/**
+	 * Leaf node count at the given depth
+	 */
+	public long perft(Position root, int depth)
+	{
+		pos.copyFrom(root);
+		long nodes = depth == 0 ? 1 : perft(0, depth);
+		// every move must have been taken back exactly
+		if (pos.getKey() != root.getKey() || pos.getHistorySize() != root.getHistorySize()
+				|| pos.getHalfMove() != root.getHalfMove() || pos.getFullMove() != root.getFullMove())
+			throw new IllegalStateException("unmakeMove() did not restore the position");
+		return nodes;
+	}
+
+	private long perft(int ply, int depth)
+	{
+		MoveList list = lists[ply];
+		int n = MoveGen.generate(pos, list);
+		// bulk counting: all generated moves are legal
+		if (depth == 1)	return n;
+
+		long nodes = 0;
+		for (int i = 0; i < n; i++)
+		{
+			pos.makeMove(list.moves[i]);
+			nodes += perft(ply + 1, depth - 1);
+			pos.unmakeMove();
+		}
+		return nodes;
+	}
+
+	/**
+	 * Node count below each root move, for debugging against other engines
+	 */
+	public void divide(Position pos, int depth)
+	{
+		MoveList root = new MoveList();
+		MoveGen.generate(pos, root);
+		long total = 0;
+		for (int i = 0; i < root.size; i++)
+		{
+			Position next = new Position(pos);
+			next.makeMove(root.moves[i]);
+			long nodes = perft(next, depth - 1);
+			System.out.println(Move.toString(root.moves[i]) + ": " + nodes);
+			total += nodes;
+		}
+		System.out.println("Total: " + total);
+	}
+
+	/**
+	 * Standard test positions and their known node counts, from depth 1 up
+	 */
+	private static final String SUITE_FEN[] = {
+		Position.FEN_START,
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+		"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+		"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+	};
+	private static final long SUITE_NODES[][] = {
+		{20, 400, 8902, 197281, 4865609, 119060324},
+		{48, 2039, 97862, 4085603, 193690690},
+		{14, 191, 2812, 43238, 674624, 11030083},
+		{6, 264, 9467, 422333, 15833292},
+		{44, 1486, 62379, 2103487, 89941194},
+		{46, 2079, 89890, 3894594, 164075551}
+	};
+
+	/**
+	 * Benchmark mode: runs the standard suite and reports nodes per second.
+	 * Exits with status 1 on any node count mismatch, or a depth below 1.
+	 * @param args [depth] [fen]. Depth defaults to 5, capped by the known counts
+	 */
+	public static void main(String[] args)
+	{
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		if (depth < 1)
+		{
+			System.out.println("java -cp bin chess.Perft [depth >= 1] [fen]");
+			System.exit(1);
+		}
+		Perft perft = new Perft();
+
+		if (args.length > 1) // a single custom position
+		{
+			StringBuilder fen = new StringBuilder(args[1]);
+			for (int i = 2; i < args.length; i++)
+				fen.append(' ').append(args[i]);
+			perft.divide(new Position(fen.toString()), depth);
+			return;
+		}
+
+		// warm up the JIT before timing
+		perft.perft(new Position(SUITE_FEN[1]), 3);
+
+		long totalNodes = 0, totalNanos = 0;
+		boolean ok = true;
+		for (int i = 0; i < SUITE_FEN.length; i++)
+		{
+			int d = Math.min(depth, SUITE_NODES[i].length);
+			Position pos = new Position(SUITE_FEN[i]);
+			long start = System.nanoTime();
+			long nodes = perft.perft(pos, d);
+			long nanos = System.nanoTime() - start;
+			boolean match = nodes == SUITE_NODES[i][d - 1];
+			ok &= match;
+			totalNodes += nodes;
+			totalNanos += nanos;
+			System.out.printf("#%d depth %d: %,d nodes  %6d ms  %,12d nps  %s%n",
+					i + 1, d, nodes, nanos / 1000000, nodes * 1000000000L / Math.max(nanos, 1),
+					match ? "OK" : "MISMATCH (expected " + SUITE_NODES[i][d - 1] + ")");
+		}
+		System.out.printf("Total: %,d nodes  %d ms  %,d nps%n",
+				totalNodes, totalNanos / 1000000, totalNodes * 1000000000L / Math.max(totalNanos, 1));
+		if (!ok)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,372 @@
+package chess;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * PGN game parser, working on raw bytes.
+ * Tags are read, SAN moves are matched against the legal moves of MoveGen
+ * and played on a Position. Comments, variations, NAGs, move numbers and
+ * annotation glyphs are skipped. A game with an illegal or ambiguous move
+ * keeps its moves up to there and gets an error; the parser skips to the next game.
+ *
+ * One parser and one Game per thread, both reused from game to game.
+ */
+public class Pgn
+{
+	/**
+	 * A parsed game. Only valid until the next parse() into it
+	 */
+	public static class Game
+	{
+		public final List<String> tagNames = new ArrayList<String>();
+		public final List<String> tagValues = new ArrayList<String>();
+		// From the movetext, or the Result tag if the movetext has none
+		public String result;
+		public int moves[] = new int[256];
+		public int moveCount;
+		// Initial position, the standard one or the FEN tag
+		public final Position start = new Position();
+		// Position after the last move
+		public final Position pos = new Position();
+		// null if the whole game was read
+		public String error;
+
+		/**
+		 * Value of a tag, null if absent
+		 */
+		public String tag(String name)
+		{
+			int i = tagNames.indexOf(name);
+			return i < 0 ? null : tagValues.get(i);
+		}
+
+		void clear()
+		{
+			tagNames.clear();
+			tagValues.clear();
+			result = null;
+			moveCount = 0;
+			error = null;
+		}
+
+		/**
+		 * Has anything been read? Trailing whitespace parses into an empty game
+		 */
+		public boolean isEmpty() {	return tagNames.isEmpty() && moveCount == 0 && error == null;	}
+
+		void addMove(int move)
+		{
+			if (moveCount == moves.length)
+			{
+				int grown[] = new int[moves.length * 2];
+				System.arraycopy(moves, 0, grown, 0, moveCount);
+				moves = grown;
+			}
+			moves[moveCount ++] = move;
+		}
+	}
+
+	private final MoveList list = new MoveList();
+
+	/**
+	 * Piece type of a SAN letter, NON if not a piece letter
+	 */
+	private static int pieceOf(byte c)
+	{
+		switch (c)
+		{
+		case 'N': return KNIGHT;
+		case 'B': return BISHOP;
+		case 'R': return ROOK;
+		case 'Q': return QUEEN;
+		case 'K': return KING;
+		}
+		return NON;
+	}
+
+	/**
+	 * Parses the game that starts at off (after any whitespace)
+	 * @return where the next game starts, end if none
+	 */
+	public int parse(byte buf[], int off, int end, Game game)
+	{
+		game.clear();
+		int i = skipSpace(buf, off, end);
+
+		// Tag pairs: [Name "Value"]
+		while (i < end && buf[i] == '[')
+		{
+			i = parseTag(buf, i + 1, end, game);
+			i = skipSpace(buf, i, end);
+		}
+
+		String fen = game.tag("FEN");
+		try {
+			Fen.parse(fen != null ? fen : FEN_START, game.start);
+		}
+		catch (IllegalArgumentException e) {
+			game.error = e.getMessage();
+			Fen.parse(FEN_START, game.start);
+			return nextGame(buf, i, end);
+		}
+		game.pos.copyFrom(game.start);
+
+		// Movetext
+		while (i < end)
+		{
+			byte c = buf[i];
+			if (c <= ' ')
+				++ i;
+			else if (c == '{')
+				i = skipPast(buf, i + 1, end, '}');
+			else if (c == ';' || (c == '%' && atLineStart(buf, i)))
+				i = skipPast(buf, i + 1, end, '\n');
+			else if (c == '(')
+				i = skipVariation(buf, i + 1, end);
+			else if (c == ')')
+				++ i; // unbalanced, ignored
+			else if (c == '$')
+				i = skipToken(buf, i + 1, end);
+			else if (c == '[' && atLineStart(buf, i))
+				break; // the next game, this one has no result
+			else if (c == '*')
+			{
+				game.result = "*";
+				return i + 1;
+			}
+			else if (isResult(buf, i, end))
+			{
+				int tokenEnd = skipToken(buf, i, end);
+				game.result = new String(buf, i, tokenEnd - i, StandardCharsets.US_ASCII);
+				return tokenEnd;
+			}
+			else if (c >= '1' && c <= '9')
+			{
+				// Move number: 12. or 12... (0-0 is castling)
+				while (i < end && ((buf[i] >= '0' && buf[i] <= '9') || buf[i] == '.'))
+					++ i;
+			}
+			else
+			{
+				int tokenEnd = skipToken(buf, i, end);
+				int move = parseSan(game.pos, list, buf, i, tokenEnd);
+				if (move == Move.NULL)
+				{
+					game.error = "Bad move " + new String(buf, i, tokenEnd - i,
+							StandardCharsets.US_ASCII)
+							+ " after " + game.moveCount + " plies";
+					return nextGame(buf, tokenEnd, end);
+				}
+				game.pos.makeMove(move);
+				game.addMove(move);
+				i = tokenEnd;
+			}
+		}
+		if (game.result == null)
+			game.result = game.tag("Result");
+		return i;
+	}
+
+	/**
+	 * A tag after its '['
+	 */
+	private static int parseTag(byte buf[], int i, int end, Game game)
+	{
+		int nameStart = i;
+		while (i < end && buf[i] > ' ' && buf[i] != '"' && buf[i] != ']')
+			++ i;
+		String name = new String(buf, nameStart, i - nameStart, StandardCharsets.US_ASCII);
+		while (i < end && buf[i] != '"' && buf[i] != ']' && buf[i] != '\n')
+			++ i;
+		StringBuilder value = new StringBuilder();
+		if (i < end && buf[i] == '"')
+		{
+			int valueStart = ++ i;
+			boolean escaped = false;
+			while (i < end && buf[i] != '"' && buf[i] != '\n')
+			{
+				if (buf[i] == '\\' && i + 1 < end)
+				{
+					escaped = true;
+					++ i;
+				}
+				++ i;
+			}
+			if (escaped)
+			{
+				for (int j = valueStart; j < i; j++)
+				{
+					if (buf[j] == '\\')	++ j;
+					value.append((char) (buf[j] & 0xFF));
+				}
+			}
+			else
+				value.append(new String(buf, valueStart, i - valueStart,
+						StandardCharsets.ISO_8859_1));
+		}
+		game.tagNames.add(name);
+		game.tagValues.add(value.toString());
+		return skipPast(buf, i, end, '\n');
+	}
+
+	/**
+	 * After an error: the next '[' at the start of a line
+	 */
+	private static int nextGame(byte buf[], int i, int end)
+	{
+		for (; i < end; i++)
+			if (buf[i] == '[' && atLineStart(buf, i))
+				return i;
+		return end;
+	}
+
+	private static boolean atLineStart(byte buf[], int i)
+	{
+		return i == 0 || buf[i - 1] == '\n' || buf[i - 1] == '\r';
+	}
+
+	private static int skipSpace(byte buf[], int i, int end)
+	{
+		while (i < end && buf[i] <= ' ')
+			++ i;
+		return i;
+	}
+
+	/**
+	 * Just after the next c, end if none
+	 */
+	private static int skipPast(byte buf[], int i, int end, char c)
+	{
+		while (i < end && buf[i] != c)
+			++ i;
+		return Math.min(i + 1, end);
+	}
+
+	/**
+	 * End of a SAN, NAG or result token
+	 */
+	private static int skipToken(byte buf[], int i, int end)
+	{
+		while (i < end && buf[i] > ' ' && buf[i] != '{' && buf[i] != '(' && buf[i] != ')'
+				&& buf[i] != ';' && buf[i] != '$')
+			++ i;
+		return i;
+	}
+
+	/**
+	 * A variation after its '(', nested ones and comments included
+	 */
+	private static int skipVariation(byte buf[], int i, int end)
+	{
+		int level = 1;
+		while (i < end && level > 0)
+		{
+			byte c = buf[i ++];
+			if (c == '(')	++ level;
+			else if (c == ')')	-- level;
+			else if (c == '{')	i = skipPast(buf, i, end, '}');
+			else if (c == ';')	i = skipPast(buf, i, end, '\n');
+		}
+		return i;
+	}
+
+	/**
+	 * 1-0, 0-1 or 1/2-1/2
+	 */
+	private static boolean isResult(byte buf[], int i, int end)
+	{
+		if (i + 2 < end && buf[i + 1] == '-'
+				&& ((buf[i] == '1' && buf[i + 2] == '0') || (buf[i] == '0' && buf[i + 2] == '1')))
+			return true;
+		return i + 6 < end && buf[i] == '1' && buf[i + 1] == '/' && buf[i + 2] == '2'
+				&& buf[i + 3] == '-';
+	}
+
+
+	/******************** SAN ********************/
+	/**
+	 * The legal move written in SAN, e.g. e4, Nbd7, exd8=Q+, O-O
+	 * @param list scratch list for the legal moves
+	 * @return Move.NULL if illegal, ambiguous or malformed
+	 */
+	public static int parseSan(Position pos, MoveList list, byte san[], int start, int end)
+	{
+		// Check, mate and annotation suffixes
+		while (end > start && (san[end - 1] == '+' || san[end - 1] == '#'
+				|| san[end - 1] == '!' || san[end - 1] == '?'))
+			-- end;
+		if (end - start < 2)	return Move.NULL;
+
+		MoveGen.generate(pos, list);
+
+		// Castling, also written with zeros
+		if (san[start] == 'O' || san[start] == '0')
+		{
+			int len = end - start;
+			boolean queenside = len == 5;
+			if (len != 3 && len != 5)	return Move.NULL;
+			for (int i = 0; i < list.size; i++)
+			{
+				int move = list.moves[i];
+				if (Move.flag(move) == Move.CASTLE
+						&& (Move.to(move) < Move.from(move)) == queenside)
+					return move;
+			}
+			return Move.NULL;
+		}
+
+		int piece = pieceOf(san[start]);
+		int i = piece == NON ? start : start + 1;
+		if (piece == NON)	piece = PAWN;
+
+		// Promotion: e8=Q or e8Q
+		int promo = NON;
+		if (end - i >= 2 && pieceOf(san[end - 1]) != NON)
+		{
+			promo = pieceOf(san[end - 1]);
+			-- end;
+			if (san[end - 1] == '=')	-- end;
+		}
+
+		// Destination: the last two characters
+		if (end - i < 2)	return Move.NULL;
+		int toFile = san[end - 2] - 'a', toRank = san[end - 1] - '1';
+		if (toFile < 0 || toFile > 7 || toRank < 0 || toRank > 7)	return Move.NULL;
+		int to = toSq(toFile, toRank);
+
+		// Disambiguation between the piece and the destination, 'x' ignored
+		int fromFile = -1, fromRank = -1;
+		for (int j = i; j < end - 2; j++)
+		{
+			byte c = san[j];
+			if (c >= 'a' && c <= 'h')	fromFile = c - 'a';
+			else if (c >= '1' && c <= '8')	fromRank = c - '1';
+			else if (c != 'x' && c != ':' && c != '-')	return Move.NULL;
+		}
+
+		int found = Move.NULL;
+		for (int j = 0; j < list.size; j++)
+		{
+			int move = list.moves[j];
+			int from = Move.from(move);
+			if (Move.to(move) != to || pos.getPiece(from) != piece
+					|| Move.flag(move) == Move.CASTLE
+					|| (fromFile >= 0 && file(from) != fromFile)
+					|| (fromRank >= 0 && rank(from) != fromRank))
+				continue;
+			// A promotion without the piece is taken as a queen
+			if (Move.flag(move) == Move.PROMOTION
+					&& Move.promo(move) != (promo == NON ? QUEEN : promo))
+				continue;
+			if (found != Move.NULL)	return Move.NULL; // ambiguous
+			found = move;
+		}
+		return found;
+	}
+}
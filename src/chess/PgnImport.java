@@ -0,0 +1,246 @@
+package chess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Streaming PGN import on all cores (headless).
+ *
+ * The calling thread reads the file through NIO into a fixed pool of batch
+ * buffers, each cut after the last whole game, and queues them. Worker threads
+ * parse the games of a batch with Pgn and hand each one to the listener, then
+ * return the buffer to the pool. Memory stays the same for any file size:
+ * the pool holds 2 batches per worker, and a full queue blocks the reader.
+ *
+ * Games are split where a tag line follows a blank line, as in export format.
+ *
+ * java -cp bin chess.PgnImport file.pgn [threads]
+ */
+public class PgnImport
+{
+	private static final int BATCH_BYTES = 1 << 22;
+
+	/**
+	 * Receives the games, on the worker threads: must be thread-safe.
+	 * The game is only valid during the call, see Pgn.Game.
+	 */
+	public interface GameListener
+	{
+		void onGame(Pgn.Game game);
+	}
+
+	/**
+	 * Import counters
+	 */
+	public static class Stats
+	{
+		public long games, moves, errors, bytes;
+		// Highest heap use seen by the reader, in bytes
+		public long peakHeap;
+
+		synchronized void add(long games, long moves, long errors)
+		{
+			this.games += games;
+			this.moves += moves;
+			this.errors += errors;
+		}
+	}
+
+	/**
+	 * Games of a file, a buffer from the pool
+	 */
+	private static class Batch
+	{
+		byte buf[];
+		int len;
+
+		Batch(int size) {	buf = new byte[size];	}
+	}
+
+	// Ends a worker
+	private static final Batch POISON = new Batch(0);
+
+	private final int threads;
+
+	public PgnImport(int threads)
+	{
+		this.threads = Math.max(threads, 1);
+	}
+
+	/**
+	 * Imports a file, blocking until every game went through the listener
+	 */
+	public Stats run(File file, final GameListener listener) throws IOException
+	{
+		final Stats stats = new Stats();
+		final BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(2 * threads);
+		final BlockingQueue<Batch> full = new ArrayBlockingQueue<Batch>(2 * threads + threads);
+		for (int i = 0; i < 2 * threads; i++)
+			free.add(new Batch(BATCH_BYTES));
+
+		Thread workers[] = new Thread[threads];
+		for (int t = 0; t < threads; t++)
+		{
+			workers[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Pgn pgn = new Pgn();
+					Pgn.Game game = new Pgn.Game();
+					try {
+						Batch batch;
+						while ((batch = full.take()) != POISON)
+						{
+							long games = 0, moves = 0, errors = 0;
+							for (int i = 0; i < batch.len; )
+							{
+								i = pgn.parse(batch.buf, i, batch.len, game);
+								if (game.isEmpty())	continue;
+								++ games;
+								moves += game.moveCount;
+								if (game.error != null)	++ errors;
+								listener.onGame(game);
+							}
+							stats.add(games, moves, errors);
+							free.put(batch);
+						}
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, "PgnImport-" + t);
+			workers[t].setDaemon(true);
+			workers[t].start();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			read(raf.getChannel(), free, full, stats);
+			for (int t = 0; t < threads; t++)
+				full.put(POISON);
+			for (Thread w : workers)
+				w.join();
+		}
+		catch (InterruptedException e) {
+			for (Thread w : workers)
+				w.interrupt();
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			raf.close();
+		}
+		return stats;
+	}
+
+	/**
+	 * Fills batches from the file, each ending after a whole game
+	 */
+	private static void read(FileChannel channel, BlockingQueue<Batch> free,
+			BlockingQueue<Batch> full, Stats stats) throws IOException, InterruptedException
+	{
+		Runtime runtime = Runtime.getRuntime();
+		// The unfinished game at the end of the last batch
+		byte carry[] = new byte[0];
+		int carryLen = 0;
+		boolean eof = false;
+		while (!eof)
+		{
+			Batch batch = free.take();
+			if (batch.buf.length < carryLen * 2)
+				batch.buf = new byte[carryLen * 2];
+			System.arraycopy(carry, 0, batch.buf, 0, carryLen);
+			batch.len = carryLen;
+
+			int cut;
+			while (true)
+			{
+				ByteBuffer bb = ByteBuffer.wrap(batch.buf, batch.len, batch.buf.length - batch.len);
+				while (bb.hasRemaining())
+					if (channel.read(bb) < 0)
+					{
+						eof = true;
+						break;
+					}
+				stats.bytes += bb.position() - batch.len;
+				batch.len = bb.position();
+				cut = eof ? batch.len : lastGameStart(batch.buf, batch.len);
+				if (cut > 0 || eof)	break;
+				// A single game bigger than the buffer
+				byte grown[] = new byte[batch.buf.length * 2];
+				System.arraycopy(batch.buf, 0, grown, 0, batch.len);
+				batch.buf = grown;
+			}
+
+			carryLen = batch.len - cut;
+			if (carry.length < carryLen)
+				carry = new byte[Math.max(carryLen, carry.length * 2)];
+			System.arraycopy(batch.buf, cut, carry, 0, carryLen);
+			batch.len = cut;
+			// Nothing left at the end of the file, e.g. an empty one
+			if (cut == 0)
+				free.put(batch);
+			else
+				full.put(batch);
+			stats.peakHeap = Math.max(stats.peakHeap, runtime.totalMemory() - runtime.freeMemory());
+		}
+	}
+
+	/**
+	 * Start of the last game in the buffer: a '[' line after a blank line. 0 if none
+	 */
+	static int lastGameStart(byte buf[], int len)
+	{
+		for (int i = len - 1; i > 0; i--)
+		{
+			if (buf[i] != '[' || buf[i - 1] != '\n')	continue;
+			int j = i - 2;
+			if (j >= 0 && buf[j] == '\r')	-- j;
+			if (j >= 0 && buf[j] == '\n')
+				return i;
+		}
+		return 0;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			System.out.println("java -cp bin chess.PgnImport file.pgn [threads]");
+			return;
+		}
+		int threads = args.length > 1 ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+		final int errorsShown[] = {0};
+		GameListener listener = new GameListener()
+		{
+			@Override
+			public void onGame(Pgn.Game game)
+			{
+				if (game.error != null)
+					synchronized (errorsShown)
+					{
+						if (errorsShown[0]++ < 10)
+							System.out.println(game.tag("White") + " - " + game.tag("Black")
+									+ ": " + game.error);
+					}
+			}
+		};
+
+		long start = System.nanoTime();
+		Stats s = new PgnImport(threads).run(new File(args[0]), listener);
+		long nanos = Math.max(System.nanoTime() - start, 1);
+		System.out.printf("%d thread(s): %,d games  %,d moves  %,d errors  %d ms%n",
+				threads, s.games, s.moves, s.errors, nanos / 1000000);
+		System.out.printf("%,d games/s  %,d moves/s  %.1f MB/s  peak heap %d MB%n",
+				s.games * 1000000000L / nanos, s.moves * 1000000000L / nanos,
+				s.bytes * 1000.0 / nanos, s.peakHeap >> 20);
+	}
+}
@@ -0,0 +1,139 @@
+package chess;
+
+import static chess.Position.*;
+import static utils.Util.*;
+
+import java.util.Random;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.collision.CollisionResult;
+import com.jme3.collision.CollisionResults;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Quad;
+import com.jme3.system.JmeSystem;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Pick latency benchmark (headless, no display needed): Picker against the
+ * full scene collide that Board used to do on every click and hover.
+ *
+ * The scene is the board of the game at its starting position, with the real
+ * piece models, seen from the game's camera. Clicks are random points on the
+ * screen, the same ones for both. Also checks that both find the same thing.
+ *
+ * java -cp bin:assets:lib/* chess.PickBench [clicks] [modelId]
+ */
+public class PickBench
+{
+	private static final int WIDTH = 1024, HEIGHT = 768;
+
+	/**
+	 * Square and piece by the old way: name check down the collide results
+	 */
+	private static Object collideScene(Node rootNode, Camera cam, Vector2f click2d)
+	{
+		CollisionResults results = new CollisionResults();
+		Vector3f click3d = cam.getWorldCoordinates(click2d, 0f);
+		Vector3f dir = cam.getWorldCoordinates(click2d, 0.5f).subtractLocal(click3d);
+		rootNode.collideWith(new Ray(click3d, dir), results);
+		for (CollisionResult res : results)
+		{
+			Geometry hit = res.getGeometry();
+			String hitName = hit.getName();
+			if (hitName.charAt(0) == '@')
+				return Integer.valueOf(hitName.substring(1));
+			else if (hitName.charAt(0) == '*')
+				return hit;
+		}
+		return null;
+	}
+
+	public static void main(String[] args)
+	{
+		int clicks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int modelId = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+		AssetManager assetManager = JmeSystem.newAssetManager(
+				Thread.currentThread().getContextClassLoader().getResource("com/jme3/asset/Desktop.cfg"));
+		Node rootNode = new Node("Root");
+		BoardManager manager = new BoardManager(rootNode);
+		int triangles = 0;
+		for (int sq = 0; sq < SQ_N; sq++)
+		{
+			int xy[] = toXY(sq);
+			Geometry quad = new Geometry("@" + sq, new Quad(Board.SQ_WIDTH, Board.SQ_WIDTH));
+			quad.rotate(toRad(-90), 0, 0);
+			quad.move(Board.coordSqCorner(xy[0], xy[1]));
+			rootNode.attachChild(quad);
+
+			int p = manager.getPiece(sq);
+			if (p == NON)	continue;
+			Piece piece = new Piece(
+					(Geometry) assetManager.loadModel("Models/" + Piece.name(p) + modelId + ".j3o"),
+					p, null, manager.getSide(sq), xy[0], xy[1]);
+			rootNode.attachChild(piece);
+			manager.setModel(sq, piece);
+			triangles += piece.getMesh().getTriangleCount();
+		}
+		rootNode.updateGeometricState();
+
+		Camera cam = new Camera(WIDTH, HEIGHT);
+		cam.setFrustumPerspective(45f, (float) WIDTH / HEIGHT, 1f, 1000f);
+		cam.setLocation(Board.coordSq(8.5, -5.5, 10.0f));
+		cam.lookAt(Board.coordSq(3, 4), Vector3f.UNIT_Y);
+		cam.update();
+
+		Vector2f points[] = new Vector2f[clicks];
+		Random random = new Random(2014);
+		for (int i = 0; i < clicks; i++)
+			points[i] = new Vector2f(random.nextFloat() * WIDTH, random.nextFloat() * HEIGHT);
+
+		System.out.printf("%d pieces, %,d triangles, %,d clicks%n",
+				Long.bitCount(manager.getPosition().occupied()), triangles, clicks);
+		Picker picker = new Picker(cam);
+		Picker.Pick pick = new Picker.Pick();
+		// Twice: the first round warms up the JIT and builds the mesh trees
+		for (int round = 0; round < 2; round++)
+		{
+			long start = System.nanoTime();
+			int sceneHits = 0;
+			for (Vector2f p : points)
+				if (collideScene(rootNode, cam, p) != null)	++ sceneHits;
+			long sceneNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int pickHits = 0;
+			long meshTests = 0;
+			for (Vector2f p : points)
+			{
+				picker.pick(p, manager, pick);
+				if (pick.piece != null || pick.sq >= 0)	++ pickHits;
+				meshTests += picker.meshTests;
+			}
+			long pickNanos = System.nanoTime() - start;
+
+			// The scene collide sometimes misses a quad altogether, the plane doesn't
+			int mismatches = 0, sceneMissed = 0;
+			for (Vector2f p : points)
+			{
+				Object hit = collideScene(rootNode, cam, p);
+				picker.pick(p, manager, pick);
+				Object mine = pick.piece != null ? pick.piece
+						: pick.sq >= 0 ? Integer.valueOf(pick.sq) : null;
+				if (hit == null && mine instanceof Integer)	++ sceneMissed;
+				else if (hit == null ? mine != null : !hit.equals(mine))	++ mismatches;
+			}
+
+			System.out.printf("Scene collide: %,6d ns/pick  %d hits%n", sceneNanos / clicks, sceneHits);
+			System.out.printf("Picker:        %,6d ns/pick  %d hits  %.2f mesh tests/pick%n",
+					pickNanos / clicks, pickHits, (double) meshTests / clicks);
+			System.out.printf("%d mismatches, %d squares missed by the scene collide%n",
+					mismatches, sceneMissed);
+		}
+	}
+}
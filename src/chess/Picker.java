@@ -0,0 +1,207 @@
+package chess;
+
+import static chess.Position.*;
+import static chess.Board.SQ_WIDTH;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.collision.CollisionResults;
+import com.jme3.math.FastMath;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+
+import utils.Util;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Picking: what's under the cursor, without colliding with the whole scene.
+ *
+ * Squares come from the board plane (y = 0) by ray/plane math.
+ * Pieces are indexed by square through the occupancy bitboard; their world
+ * bounding boxes (kept up to date by jME) are tested first, and only the
+ * nearest candidates get an exact test against their mesh, which jME
+ * accelerates with the mesh's BIH tree. Usually that's a single mesh.
+ *
+ * Render thread only: the ray and the results are reused.
+ */
+public class Picker
+{
+	/**
+	 * What's under the cursor
+	 */
+	public static class Pick
+	{
+		// Square of the board plane under the cursor, -1 if off the board
+		public int sq = -1;
+		// Nearest piece hit, null if none. It hides the square
+		public Piece piece;
+		// Distance from the camera to the piece hit
+		public float distance;
+
+		void clear()
+		{
+			sq = -1;
+			piece = null;
+			distance = Float.POSITIVE_INFINITY;
+		}
+	}
+
+	private final Camera cam;
+	private final Ray ray = new Ray();
+	private final Vector3f origin = new Vector3f(), dir = new Vector3f();
+	private final CollisionResults results = new CollisionResults();
+	// Bounding box entry distance of each candidate square, infinity if missed
+	private final float boxDistance[] = new float[SQ_N];
+
+	// Exact mesh tests in the last pick, for PickBench
+	int meshTests;
+
+	public Picker(Camera cam)
+	{
+		this.cam = cam;
+	}
+
+	/**
+	 * The view ray under the cursor, direction normalized
+	 */
+	private void castRay(Vector2f cursor)
+	{
+		cam.getWorldCoordinates(cursor, 0f, origin);
+		cam.getWorldCoordinates(cursor, 0.5f, dir).subtractLocal(origin).normalizeLocal();
+		ray.setOrigin(origin);
+		ray.setDirection(dir);
+	}
+
+	/**
+	 * The square under the cursor, as if no piece were there
+	 * @return -1 if the cursor is off the board
+	 */
+	public int squareAt(Vector2f cursor)
+	{
+		castRay(cursor);
+		return planeSquare();
+	}
+
+	/**
+	 * Distance along the cast ray to the board plane, infinity if it never gets there
+	 */
+	private float planeDistance()
+	{
+		// Looking up, or along the board
+		return dir.y >= -FastMath.FLT_EPSILON ? Float.POSITIVE_INFINITY : -origin.y / dir.y;
+	}
+
+	/**
+	 * Square where the cast ray meets the board plane, -1 if none
+	 */
+	private int planeSquare()
+	{
+		float t = planeDistance();
+		if (t == Float.POSITIVE_INFINITY)
+			return -1;
+		// Quads span [x, x + SQ_WIDTH] and [-y - SQ_WIDTH, -y], see Board.coordSqCorner()
+		int x = (int) FastMath.floor((origin.x + t * dir.x) / SQ_WIDTH);
+		int y = (int) FastMath.floor(-(origin.z + t * dir.z) / SQ_WIDTH);
+		if (x < 0 || x >= FILE_N || y < 0 || y >= RANK_N)
+			return -1;
+		return Util.toSq(x, y);
+	}
+
+	/**
+	 * The piece and the square under the cursor
+	 * @param manager the models of the game on display
+	 * @param pick filled with the result
+	 * @return pick
+	 */
+	public Pick pick(Vector2f cursor, BoardManager manager, Pick pick)
+	{
+		pick.clear();
+		meshTests = 0;
+		castRay(cursor);
+		pick.sq = planeSquare();
+		// Below the board, a piece is out of sight
+		float limit = planeDistance();
+
+		// Broad phase: bounding boxes of the occupied squares
+		long candidates = 0;
+		for (long occ = manager.getPosition().occupied(); occ != 0; occ &= occ - 1)
+		{
+			int sq = Long.numberOfTrailingZeros(occ);
+			Piece piece = manager.getModel(sq);
+			if (piece == null)	continue;
+			float d = boxDistance(piece.getWorldBound());
+			if (d < limit)
+			{
+				boxDistance[sq] = d;
+				candidates |= 1L << sq;
+			}
+		}
+
+		// Narrow phase, nearest box first: a box farther than the nearest
+		// exact hit can't hold a nearer one
+		while (candidates != 0)
+		{
+			int nearest = -1;
+			for (long c = candidates; c != 0; c &= c - 1)
+			{
+				int sq = Long.numberOfTrailingZeros(c);
+				if (nearest < 0 || boxDistance[sq] < boxDistance[nearest])
+					nearest = sq;
+			}
+			if (boxDistance[nearest] >= Math.min(pick.distance, limit))	break;
+			candidates &= ~(1L << nearest);
+
+			Piece piece = manager.getModel(nearest);
+			results.clear();
+			++ meshTests;
+			if (piece.collideWith(ray, results) > 0)
+			{
+				float d = results.getClosestCollision().getDistance();
+				if (d < pick.distance && d < limit)
+				{
+					pick.distance = d;
+					pick.piece = piece;
+				}
+			}
+		}
+		return pick;
+	}
+
+	/**
+	 * Slab test of the ray against a bounding box
+	 * @return entry distance, 0 if the ray starts inside, infinity if it misses
+	 */
+	private float boxDistance(BoundingVolume bound)
+	{
+		if (!(bound instanceof BoundingBox))
+			return bound != null && bound.intersects(ray) ? 0 : Float.POSITIVE_INFINITY;
+		BoundingBox box = (BoundingBox) bound;
+		Vector3f c = box.getCenter();
+		float near = 0, far = Float.POSITIVE_INFINITY;
+		for (int axis = 0; axis < 3; axis++)
+		{
+			float o = origin.get(axis), d = dir.get(axis), center = c.get(axis);
+			float extent = axis == 0 ? box.getXExtent() : axis == 1 ? box.getYExtent() : box.getZExtent();
+			float lo = center - extent, hi = center + extent;
+			if (FastMath.abs(d) < FastMath.FLT_EPSILON)
+			{
+				// Parallel to the slab: inside it or never
+				if (o < lo || o > hi)	return Float.POSITIVE_INFINITY;
+				continue;
+			}
+			float t1 = (lo - o) / d, t2 = (hi - o) / d;
+			if (t1 > t2)
+			{
+				float t = t1;
+				t1 = t2;
+				t2 = t;
+			}
+			near = Math.max(near, t1);
+			far = Math.min(far, t2);
+			if (near > far)	return Float.POSITIVE_INFINITY;
+		}
+		return near;
+	}
+}
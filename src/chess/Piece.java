@@ -14,21 +14,7 @@ import static chess.Board.*;
  */
 public class Piece extends Geometry
 {
-	// sides: white/black
-	public static final int W = 0, B = 1,
-			SIDE_N = 2;
-	
-	// pieces
-	public static final int NON = 0, 
-			PAWN = 1,
-			KNIGHT = 2, 
-			BISHOP = 3, 
-			ROOK = 4,
-			QUEEN = 5,
-			KING = 6,
-			PIECE_N = 7;
-	
-	// piece names
+	// piece names, indexed by the piece types in Position
 	public static final String PIECE_NAMES[] = 
 		{"", "Pawn", "Knight", "Bishop", "Rook", "Queen", "King"};
 	
@@ -0,0 +1,712 @@
+package chess;
+
+import static chess.Bitboard.*;
+
+import java.util.Arrays;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Rules core: the position as bitboards.
+ * One 64-bit board per piece type and side, plus occupancy boards.
+ * Knows nothing about jME, the 3D models are kept by BoardManager.
+ */
+public class Position
+{
+	// sides: white/black
+	public static final int W = 0, B = 1,
+			SIDE_N = 2;
+
+	// pieces
+	public static final int NON = 0,
+			PAWN = 1,
+			KNIGHT = 2,
+			BISHOP = 3,
+			ROOK = 4,
+			QUEEN = 5,
+			KING = 6,
+			PIECE_N = 7;
+
+	// board dimensions
+	public static final int SQ_N = 64;
+	public static final int RANK_N = 8, FILE_N = 8;
+
+	/**
+	 * Default start position FEN string
+	 */
+	public static final String FEN_START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+	// pieceBB[side][piece]. pieceBB[side][NON] is the occupancy of that side
+	private final long pieceBB[][] = new long[SIDE_N][PIECE_N];
+	// All pieces of both sides
+	private long occupied;
+	// Piece type on each square, NON if empty. Only a cache for O(1) lookup
+	private final int boardPieces[] = new int[SQ_N];
+
+	private int turn; // whose turn? White or Black?
+	// Castling rights
+	// Castling encoding: 2 bits, msb = O-O-O, lsb = O-O
+	// &1 get kingside; &2 get queenside; &=1 delete queenside; &=2 delete kingside
+	private final int castleRights[] = new int[SIDE_N];
+	// En passant target square, -1 if none.
+	// Only set when an enemy pawn could actually capture there
+	private int epSq = -1;
+	// Half-move clock for the fifty move rule and full-move number
+	private int halfMove;
+	private int fullMove = 1;
+	// Full-move number before the first move of the history, for DEBUG_KEY
+	private int startFullMove = 1;
+	// Zobrist key, updated incrementally with every change (see Zobrist)
+	private long key;
+	// Material and piece-square sums for Eval, white minus black, and game phase.
+	// Updated incrementally like the key
+	private int mgScore, egScore, phase;
+	// Zobrist key of the pawns alone, for the pawn hash table
+	private long pawnKey;
+
+	// Undo stack, one entry per move played, preallocated and grown by doubling.
+	// undoState packs what makeMove() can't recompute, see pushUndo()
+	private int undoMove[] = new int[UNDO_INIT];
+	private int undoState[] = new int[UNDO_INIT];
+	// Key before each move, also the key history of the game
+	private long undoKey[] = new long[UNDO_INIT];
+	private int undoSize;
+	private static final int UNDO_INIT = 256;
+
+	// Checks the incremental key against a full recompute after every change.
+	// Slow, debugging only: run with -Dexcalilux.debugKey=true
+	static final boolean DEBUG_KEY = Boolean.getBoolean("excalilux.debugKey");
+
+	// castleRights[side] &= CASTLE_MASK[side][sq] whenever sq is touched by a move
+	private static final int CASTLE_MASK[][] = new int[SIDE_N][SQ_N];
+	static
+	{
+		for (int side = W; side < SIDE_N; side++)
+		{
+			Arrays.fill(CASTLE_MASK[side], 3);
+			int back = side == W ? 0 : 56;
+			CASTLE_MASK[side][back + 4] = 0; // king
+			CASTLE_MASK[side][back + 7] = 2; // kingside rook
+			CASTLE_MASK[side][back] = 1; // queenside rook
+		}
+	}
+
+	/**
+	 * Empty board, white to move
+	 */
+	public Position() {}
+
+	/**
+	 * @throws IllegalArgumentException if the FEN is malformed, see Fen
+	 */
+	public Position(CharSequence fen)
+	{
+		Fen.parse(fen, this);
+	}
+
+	/**
+	 * Copy ctor
+	 */
+	public Position(Position other)
+	{
+		this.copyFrom(other);
+	}
+
+	/**
+	 * Overwrite this position with another one, no allocation
+	 */
+	public void copyFrom(Position other)
+	{
+		for (int side = W; side < SIDE_N; side++)
+		{
+			System.arraycopy(other.pieceBB[side], 0, this.pieceBB[side], 0, PIECE_N);
+			this.castleRights[side] = other.castleRights[side];
+		}
+		System.arraycopy(other.boardPieces, 0, this.boardPieces, 0, SQ_N);
+		this.occupied = other.occupied;
+		this.turn = other.turn;
+		this.epSq = other.epSq;
+		this.halfMove = other.halfMove;
+		this.fullMove = other.fullMove;
+		this.startFullMove = other.startFullMove;
+		this.key = other.key;
+		this.mgScore = other.mgScore;
+		this.egScore = other.egScore;
+		this.phase = other.phase;
+		this.pawnKey = other.pawnKey;
+
+		ensureUndo(other.undoSize);
+		System.arraycopy(other.undoMove, 0, this.undoMove, 0, other.undoSize);
+		System.arraycopy(other.undoState, 0, this.undoState, 0, other.undoSize);
+		System.arraycopy(other.undoKey, 0, this.undoKey, 0, other.undoSize);
+		this.undoSize = other.undoSize;
+	}
+
+	/**
+	 * Empty board, white to move
+	 */
+	public void clear()
+	{
+		for (int side = W; side < SIDE_N; side++)
+		{
+			Arrays.fill(pieceBB[side], 0);
+			castleRights[side] = 0;
+		}
+		Arrays.fill(boardPieces, NON);
+		occupied = 0;
+		turn = W;
+		epSq = -1;
+		halfMove = 0;
+		fullMove = startFullMove = 1;
+		key = 0;
+		mgScore = egScore = phase = 0;
+		pawnKey = 0;
+		undoSize = 0;
+	}
+
+
+	/******************** Queries ********************/
+	/**
+	 * Get the piece at a specific square
+	 */
+	public int getPiece(int sq) {	return this.boardPieces[sq];	}
+
+	/**
+	 * Get the color (side) of the piece at a specific square, -1 if empty
+	 */
+	public int getSide(int sq)
+	{
+		return has(pieceBB[W][NON], sq) ? W :
+				has(pieceBB[B][NON], sq) ? B : -1;
+	}
+
+	public boolean isEmpty(int sq) {	return !has(occupied, sq);	}
+
+	/**
+	 * Is the color of the piece at sq white?
+	 */
+	public boolean isWhite(int sq) {	return has(pieceBB[W][NON], sq);	}
+
+	/**
+	 * If the pieces on two squares are friendly pieces
+	 * Two empty squares count as the same side
+	 */
+	public boolean isSameSide(int sq1, int sq2)
+	{
+		return getSide(sq1) == getSide(sq2);
+	}
+
+	/**
+	 * Bitboard of one piece type of one side
+	 */
+	public long pieces(int side, int piece) {	return pieceBB[side][piece];	}
+
+	/**
+	 * Bitboard of all pieces of one side
+	 */
+	public long occupancy(int side) {	return pieceBB[side][NON];	}
+
+	/**
+	 * Bitboard of all pieces on board
+	 */
+	public long occupied() {	return this.occupied;	}
+
+	public int getTurn() {	return this.turn;	}
+
+	public int getCastleRights(int side) {	return this.castleRights[side];	}
+
+	/**
+	 * En passant target square, -1 if none
+	 */
+	public int getEpSq() {	return this.epSq;	}
+
+	public int getHalfMove() {	return this.halfMove;	}
+
+	public int getFullMove() {	return this.fullMove;	}
+
+	/**
+	 * 64-bit Zobrist key of the position
+	 */
+	public long getKey() {	return this.key;	}
+
+	/**
+	 * Middlegame and endgame sums of Eval, white minus black
+	 */
+	public int getMgScore() {	return this.mgScore;	}
+	public int getEgScore() {	return this.egScore;	}
+
+	/**
+	 * Game phase: Eval.PHASE_MAX with all pieces, 0 with kings and pawns only
+	 */
+	public int getPhase() {	return this.phase;	}
+
+	/**
+	 * Zobrist key of the pawns of both sides, nothing else
+	 */
+	public long getPawnKey() {	return this.pawnKey;	}
+
+	/**
+	 * Zobrist key computed from scratch.
+	 * Must always equal getKey(), only used for verification.
+	 */
+	public long computeKey()
+	{
+		long k = 0;
+		for (int side = W; side < SIDE_N; side++)
+		{
+			for (int piece = PAWN; piece < PIECE_N; piece++)
+				for (long bb = pieceBB[side][piece]; bb != 0; bb = popLsb(bb))
+					k ^= Zobrist.PIECE[side][piece][lsb(bb)];
+			k ^= Zobrist.CASTLE[side][castleRights[side]];
+		}
+		if (epSq >= 0)
+			k ^= Zobrist.EP_FILE[file(epSq)];
+		if (turn == B)
+			k ^= Zobrist.SIDE;
+		return k;
+	}
+
+	/**
+	 * Pawn key computed from scratch, only used for verification
+	 */
+	public long computePawnKey()
+	{
+		long k = 0;
+		for (int side = W; side < SIDE_N; side++)
+			for (long bb = pieceBB[side][PAWN]; bb != 0; bb = popLsb(bb))
+				k ^= Zobrist.PIECE[side][PAWN][lsb(bb)];
+		return k;
+	}
+
+	/**
+	 * Full-move number from the history: one more after each move by black,
+	 * null moves included
+	 */
+	private int computeFullMove()
+	{
+		int n = startFullMove;
+		for (int i = 0; i < undoSize; i++)
+			if ((turn ^ (undoSize - i) & 1) == B)	++ n;
+		return n;
+	}
+
+	/**
+	 * Debug mode only: throws if the incremental key or eval went wrong
+	 */
+	private void verifyKey()
+	{
+		if (key != computeKey())
+			throw new IllegalStateException("Zobrist key mismatch: incremental "
+					+ Long.toHexString(key) + ", recomputed " + Long.toHexString(computeKey()));
+		if (pawnKey != computePawnKey())
+			throw new IllegalStateException("Pawn key mismatch: incremental "
+					+ Long.toHexString(pawnKey) + ", recomputed " + Long.toHexString(computePawnKey()));
+		if (Eval.evaluate(this) != Eval.evaluateFromScratch(this))
+			throw new IllegalStateException("Eval mismatch: incremental "
+					+ Eval.evaluate(this) + ", recomputed " + Eval.evaluateFromScratch(this));
+	}
+
+	/**
+	 * Debug mode only, once a move is made or taken back:
+	 * throws if the full-move number went wrong
+	 */
+	private void verifyMoveNumber()
+	{
+		if (fullMove != computeFullMove())
+			throw new IllegalStateException("Full-move number mismatch: incremental "
+					+ fullMove + ", recomputed " + computeFullMove());
+	}
+
+	public int kingSq(int side) {	return lsb(pieceBB[side][KING]);	}
+
+	/**
+	 * All pieces of both sides that attack sq, given an occupancy
+	 */
+	public long attackersTo(int sq, long occ)
+	{
+		return (PAWN_ATTACKS[B][sq] & pieceBB[W][PAWN])
+			| (PAWN_ATTACKS[W][sq] & pieceBB[B][PAWN])
+			| (KNIGHT_ATTACKS[sq] & (pieceBB[W][KNIGHT] | pieceBB[B][KNIGHT]))
+			| (KING_ATTACKS[sq] & (pieceBB[W][KING] | pieceBB[B][KING]))
+			| (bishopAttacks(sq, occ) & (pieceBB[W][BISHOP] | pieceBB[B][BISHOP]
+										| pieceBB[W][QUEEN] | pieceBB[B][QUEEN]))
+			| (rookAttacks(sq, occ) & (pieceBB[W][ROOK] | pieceBB[B][ROOK]
+										| pieceBB[W][QUEEN] | pieceBB[B][QUEEN]));
+	}
+
+	/**
+	 * Is sq attacked by any piece of the given side?
+	 */
+	public boolean isAttacked(int sq, int bySide)
+	{
+		return (attackersTo(sq, occupied) & pieceBB[bySide][NON]) != 0;
+	}
+
+	/**
+	 * Pieces of the given side that are pinned to their own king
+	 */
+	public long pinned(int side)
+	{
+		int them = side ^ 1;
+		int ksq = kingSq(side);
+		// Enemy sliders that would hit the king on an empty board
+		long snipers = (rookAttacks(ksq, 0) & (pieceBB[them][ROOK] | pieceBB[them][QUEEN]))
+				| (bishopAttacks(ksq, 0) & (pieceBB[them][BISHOP] | pieceBB[them][QUEEN]));
+		long pinned = 0;
+		for (; snipers != 0; snipers = popLsb(snipers))
+		{
+			long blockers = BETWEEN[ksq][lsb(snipers)] & occupied;
+			// exactly one blocker, and it's ours
+			if (blockers != 0 && popLsb(blockers) == 0)
+				pinned |= blockers & pieceBB[side][NON];
+		}
+		return pinned;
+	}
+
+	/**
+	 * Is the side to move in check?
+	 */
+	public boolean inCheck()
+	{
+		return isAttacked(kingSq(turn), turn ^ 1);
+	}
+
+
+	/******************** Board editing ********************/
+	/**
+	 * Puts a piece on an empty square
+	 */
+	public void put(int sq, int side, int piece)
+	{
+		long b = bit(sq);
+		pieceBB[side][piece] |= b;
+		pieceBB[side][NON] |= b;
+		occupied |= b;
+		boardPieces[sq] = piece;
+		key ^= Zobrist.PIECE[side][piece][sq];
+		mgScore += Eval.MG[side][piece][sq];
+		egScore += Eval.EG[side][piece][sq];
+		phase += Eval.PHASE_WEIGHT[piece];
+		if (piece == PAWN)	pawnKey ^= Zobrist.PIECE[side][PAWN][sq];
+		if (DEBUG_KEY)	verifyKey();
+	}
+
+	/**
+	 * Removes the piece and its side
+	 * @return removed piece type, NON if the square was empty
+	 */
+	public int remove(int sq)
+	{
+		int piece = boardPieces[sq];
+		if (piece != NON)
+		{
+			long b = bit(sq);
+			int side = getSide(sq);
+			pieceBB[side][piece] &= ~b;
+			pieceBB[side][NON] &= ~b;
+			occupied &= ~b;
+			boardPieces[sq] = NON;
+			key ^= Zobrist.PIECE[side][piece][sq];
+			mgScore -= Eval.MG[side][piece][sq];
+			egScore -= Eval.EG[side][piece][sq];
+			phase -= Eval.PHASE_WEIGHT[piece];
+			if (piece == PAWN)	pawnKey ^= Zobrist.PIECE[side][PAWN][sq];
+			if (DEBUG_KEY)	verifyKey();
+		}
+		return piece;
+	}
+
+	/**
+	 * Moves a piece from sq1 to sq2 and removes anything on sq2
+	 * @return captured piece type, NON if none
+	 */
+	public int move(int sq1, int sq2)
+	{
+		int side = getSide(sq1);
+		int piece = remove(sq1);
+		int captured = remove(sq2);
+		if (piece != NON)
+			put(sq2, side, piece);
+		return captured;
+	}
+
+
+	/******************** Playing moves ********************/
+	/**
+	 * Plays a legal move (see MoveGen) for the side to move.
+	 * Handles castling, en passant and promotion, and updates
+	 * castling rights, en passant square, clocks and turn.
+	 * Can be taken back with unmakeMove().
+	 * @return captured piece type, NON if none
+	 */
+	public int makeMove(int move)
+	{
+		int from = Move.from(move), to = Move.to(move);
+		int us = turn, them = us ^ 1;
+		int piece = boardPieces[from];
+		int captured = NON;
+		int undo = undoSize;
+		pushUndo(move);
+
+		switch (Move.flag(move))
+		{
+		case Move.CASTLE:
+			move(from, to);
+			if (to > from) // O-O: rook h -> f
+				move(to + 1, to - 1);
+			else // O-O-O: rook a -> d
+				move(to - 2, to + 1);
+			break;
+		case Move.EN_PASSANT:
+			captured = remove(to + (us == W ? -8 : 8));
+			move(from, to);
+			break;
+		case Move.PROMOTION:
+			remove(from);
+			captured = remove(to);
+			put(to, us, Move.promo(move));
+			break;
+		default:
+			captured = move(from, to);
+		}
+
+		key ^= Zobrist.CASTLE[W][castleRights[W]] ^ Zobrist.CASTLE[B][castleRights[B]];
+		castleRights[W] &= CASTLE_MASK[W][from] & CASTLE_MASK[W][to];
+		castleRights[B] &= CASTLE_MASK[B][from] & CASTLE_MASK[B][to];
+		key ^= Zobrist.CASTLE[W][castleRights[W]] ^ Zobrist.CASTLE[B][castleRights[B]];
+
+		if (epSq >= 0)
+			key ^= Zobrist.EP_FILE[file(epSq)];
+		epSq = -1;
+		if (piece == PAWN && (from ^ to) == 16)
+		{
+			int ep = (from + to) >> 1;
+			if ((PAWN_ATTACKS[us][ep] & pieceBB[them][PAWN]) != 0)
+			{
+				epSq = ep;
+				key ^= Zobrist.EP_FILE[file(ep)];
+			}
+		}
+
+		undoState[undo] |= captured;
+		halfMove = piece == PAWN || captured != NON ? 0 : halfMove + 1;
+		if (us == B)	++ fullMove;
+		turn = them;
+		key ^= Zobrist.SIDE;
+		if (DEBUG_KEY)
+		{
+			verifyKey();
+			verifyMoveNumber();
+		}
+		return captured;
+	}
+
+	/**
+	 * Takes back the last makeMove() or makeNullMove()
+	 * @return the move taken back, Move.NULL for a null move
+	 * @throws IllegalStateException if no move was played
+	 */
+	public int unmakeMove()
+	{
+		if (undoSize == 0)
+			throw new IllegalStateException("No move to take back");
+		int move = undoMove[-- undoSize];
+		int state = undoState[undoSize];
+		int us = turn ^ 1;
+
+		// Pieces first: the key stays consistent for DEBUG_KEY
+		if (move != Move.NULL)
+		{
+			int from = Move.from(move), to = Move.to(move);
+			int captured = state & 7;
+			switch (Move.flag(move))
+			{
+			case Move.CASTLE:
+				move(to, from);
+				if (to > from)
+					move(to - 1, to + 1);
+				else
+					move(to + 1, to - 2);
+				break;
+			case Move.EN_PASSANT:
+				move(to, from);
+				put(to + (us == W ? -8 : 8), us ^ 1, PAWN);
+				break;
+			case Move.PROMOTION:
+				remove(to);
+				put(from, us, PAWN);
+				if (captured != NON)	put(to, us ^ 1, captured);
+				break;
+			default:
+				move(to, from);
+				if (captured != NON)	put(to, us ^ 1, captured);
+			}
+		}
+
+		turn = us;
+		if (us == B)	-- fullMove;
+		castleRights[W] = state >>> 3 & 3;
+		castleRights[B] = state >>> 5 & 3;
+		epSq = (state >>> 7 & 0x7F) - 1;
+		halfMove = state >>> 14;
+		key = undoKey[undoSize];
+		if (DEBUG_KEY)
+		{
+			verifyKey();
+			verifyMoveNumber();
+		}
+		return move;
+	}
+
+	/**
+	 * Saves the state that a move destroys. The captured piece is or'ed in later.
+	 * Layout: captured 0-2, castling rights 3-4 (white) 5-6 (black),
+	 * en passant square + 1 7-13, half-move clock 14-
+	 */
+	private void pushUndo(int move)
+	{
+		ensureUndo(undoSize + 1);
+		undoMove[undoSize] = move;
+		undoState[undoSize] = castleRights[W] << 3 | castleRights[B] << 5
+				| (epSq + 1) << 7 | halfMove << 14;
+		undoKey[undoSize] = key;
+		++ undoSize;
+	}
+
+	private void ensureUndo(int size)
+	{
+		if (size > undoMove.length)
+		{
+			int n = Math.max(size, undoMove.length * 2);
+			undoMove = Arrays.copyOf(undoMove, n);
+			undoState = Arrays.copyOf(undoState, n);
+			undoKey = Arrays.copyOf(undoKey, n);
+		}
+	}
+
+	/**
+	 * Number of moves that can be taken back
+	 */
+	public int getHistorySize() {	return this.undoSize;	}
+
+	/**
+	 * The i-th move played, from 0. Move.NULL for a null move
+	 */
+	public int getHistoryMove(int i) {	return this.undoMove[i];	}
+
+	/**
+	 * The last move played, Move.NULL if none
+	 */
+	public int lastMove() {	return undoSize > 0 ? undoMove[undoSize - 1] : Move.NULL;	}
+
+	/**
+	 * Has the position occurred before since the last capture or pawn move?
+	 * Scans the key history back two plies at a time (same side to move),
+	 * no further than the half-move clock or the last null move.
+	 * A draw for the search.
+	 */
+	public boolean isRepetition()
+	{
+		int stop = repetitionStart();
+		for (int i = undoSize - 4; i >= stop; i -= 2)
+			if (undoKey[i] == key)	return true;
+		return false;
+	}
+
+	/**
+	 * How many times the position occurred before, see isRepetition().
+	 * 2 is a threefold repetition
+	 */
+	public int repetitions()
+	{
+		int n = 0;
+		int stop = repetitionStart();
+		for (int i = undoSize - 4; i >= stop; i -= 2)
+			if (undoKey[i] == key)	++ n;
+		return n;
+	}
+
+	/**
+	 * Oldest history entry a repetition can go back to: the position after
+	 * the last capture or pawn move, or after the last null move.
+	 * A position that comes back only because a side passed isn't repeated
+	 */
+	private int repetitionStart()
+	{
+		int stop = Math.max(undoSize - halfMove, 0);
+		for (int i = undoSize - 1; i >= stop; i--)
+			if (undoMove[i] == Move.NULL)	return i + 1;
+		return stop;
+	}
+
+	/**
+	 * Fifty moves by each side without a capture or pawn move
+	 */
+	public boolean isFiftyMoves() {	return halfMove >= 100;	}
+
+	/**
+	 * Passes the turn to the opponent. Only for search (null move pruning),
+	 * must not be called when in check.
+	 */
+	public void makeNullMove()
+	{
+		pushUndo(Move.NULL);
+		if (epSq >= 0)
+		{
+			key ^= Zobrist.EP_FILE[file(epSq)];
+			epSq = -1;
+		}
+		++ halfMove;
+		// Taken back by unmakeMove() like any black move
+		if (turn == B)	++ fullMove;
+		turn ^= 1;
+		key ^= Zobrist.SIDE;
+		if (DEBUG_KEY)
+		{
+			verifyKey();
+			verifyMoveNumber();
+		}
+	}
+
+
+	/******************** Setup ********************/
+	/**
+	 * Sets everything but the pieces, for Fen.
+	 * The en passant square is dropped unless a pawn can capture there.
+	 */
+	void setState(int turn, int castleW, int castleB, int epSq, int halfMove, int fullMove)
+	{
+		this.turn = turn;
+		this.castleRights[W] = castleW;
+		this.castleRights[B] = castleB;
+		this.epSq = epSq >= 0 && (PAWN_ATTACKS[turn ^ 1][epSq] & pieceBB[turn][PAWN]) != 0 ? epSq : -1;
+		this.halfMove = halfMove;
+		this.fullMove = this.startFullMove = fullMove;
+		this.key = computeKey();
+	}
+
+	/**
+	 * Checks that the position could occur in a game, as far as
+	 * the move generator relies on it.
+	 * @return what's wrong, null if the position is legal
+	 */
+	public String validate()
+	{
+		for (int side = W; side < SIDE_N; side++)
+		{
+			if (popCount(pieceBB[side][KING]) != 1)
+				return "each side needs exactly one king";
+			int back = side == W ? 0 : 56;
+			int rights = castleRights[side];
+			if (rights != 0 && !has(pieceBB[side][KING], back + 4))
+				return "castling rights without the king on its square";
+			if ((rights & 1) != 0 && !has(pieceBB[side][ROOK], back + 7)
+				|| (rights & 2) != 0 && !has(pieceBB[side][ROOK], back))
+				return "castling rights without the rook on its square";
+		}
+		if (((pieceBB[W][PAWN] | pieceBB[B][PAWN]) & (RANK_1 | RANK_8)) != 0)
+			return "pawns on the first or last rank";
+		if (isAttacked(kingSq(turn ^ 1), turn))
+			return "the side not to move is in check";
+		return null;
+	}
+}
@@ -0,0 +1,62 @@
+package chess;
+
+import static chess.Position.*;
+
+import java.nio.ByteBuffer;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.texture.Image;
+import com.jme3.texture.Image.Format;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.util.BufferUtils;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * The color of every square in an 8x8 data texture, one texel per square
+ * (texel (file, rank) is square rank * 8 + file, row 0 at the bottom).
+ * The board is a single mesh whose shader samples it without filtering:
+ * a highlight is 4 bytes written here, uploaded with the next frame,
+ * instead of a material change on one of 64 quads.
+ */
+public class SquareColors
+{
+	private final ByteBuffer data = BufferUtils.createByteBuffer(SQ_N * 4);
+	private final Image image = new Image(Format.RGBA8, FILE_N, RANK_N, data);
+	private final Texture2D texture = new Texture2D(image);
+
+	public SquareColors()
+	{
+		// One texel per square, sharp edges
+		texture.setMagFilter(Texture.MagFilter.Nearest);
+		texture.setMinFilter(Texture.MinFilter.NearestNoMipMaps);
+		texture.setWrap(Texture.WrapMode.EdgeClamp);
+	}
+
+	public Texture2D getTexture() {	return this.texture;	}
+
+	public void set(int sq, ColorRGBA c)
+	{
+		int i = sq * 4;
+		data.put(i, toByte(c.r)).put(i + 1, toByte(c.g))
+			.put(i + 2, toByte(c.b)).put(i + 3, toByte(c.a));
+		image.setUpdateNeeded();
+	}
+
+	/**
+	 * The current color of a square, 8 bits per channel
+	 */
+	public ColorRGBA get(int sq)
+	{
+		int i = sq * 4;
+		return new ColorRGBA(toFloat(data.get(i)), toFloat(data.get(i + 1)),
+				toFloat(data.get(i + 2)), toFloat(data.get(i + 3)));
+	}
+
+	private static byte toByte(float f)
+	{
+		return (byte) Math.round(Math.max(0f, Math.min(f, 1f)) * 255);
+	}
+
+	private static float toFloat(byte b) {	return (b & 0xFF) / 255f;	}
+}
@@ -0,0 +1,53 @@
+package chess;
+
+import static chess.Position.*;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Random keys for Zobrist hashing of positions.
+ * A position's key is the XOR of the keys of its features,
+ * so Position keeps it up to date with one XOR per change.
+ */
+public final class Zobrist
+{
+	private Zobrist() {}
+
+	// PIECE[side][piece][sq], PIECE[side][NON] stays 0
+	public static final long PIECE[][][] = new long[SIDE_N][PIECE_N][SQ_N];
+	// XORed in when black is to move
+	public static final long SIDE;
+	// CASTLE[side][rights], 2-bit castle rights as in Position
+	public static final long CASTLE[][] = new long[SIDE_N][4];
+	// En passant file
+	public static final long EP_FILE[] = new long[FILE_N];
+
+	// Fixed seed: keys must be the same on every run
+	private static long seed = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * xorshift64* generator
+	 */
+	private static long nextRandom()
+	{
+		seed ^= seed >>> 12;
+		seed ^= seed << 25;
+		seed ^= seed >>> 27;
+		return seed * 2685821657736338717L;
+	}
+
+	static
+	{
+		for (int side = W; side < SIDE_N; side++)
+		{
+			for (int piece = PAWN; piece < PIECE_N; piece++)
+				for (int sq = 0; sq < SQ_N; sq++)
+					PIECE[side][piece][sq] = nextRandom();
+			// no rights, no key
+			for (int rights = 1; rights < 4; rights++)
+				CASTLE[side][rights] = nextRandom();
+		}
+		for (int file = 0; file < FILE_N; file++)
+			EP_FILE[file] = nextRandom();
+		SIDE = nextRandom();
+	}
+}
@@ -0,0 +1,168 @@
+package control;
+
+import chess.Board;
+import chess.Move;
+import chess.MoveList;
+import chess.OpeningBook;
+import chess.Position;
+import excalibur.Engine;
+import excalibur.Search;
+import excalibur.SearchLimits;
+import excalibur.SearchListener;
+
+import com.jme3.app.*;
+import com.jme3.app.state.*;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Runs Excalibur on the render thread, a slice of nodes per frame,
+ * for machines with a single weak core (run with -Dexcalilux.frameSearch=true).
+ *
+ * The slice is sized from the measured search speed and the time the rest
+ * of the last frame took, so that the frame stays within 1/60 s.
+ * The search yields when the slice is used up and resumes from its
+ * iterative deepening state on the next frame.
+ * The best move so far is marked on the board while it thinks.
+ */
+public class FrameSearchState extends AbstractAppState
+{
+	// Frame time to stay under, in seconds
+	private static final float FRAME_TIME = 1 / 60f;
+	// Search time per frame even when the frame is already late
+	private static final float MIN_SLICE = 0.001f;
+	// Search speed before the first measurement
+	private static final double INITIAL_NPS = 200000;
+	// Smallest budget: the search only checks its limits every 1024 nodes
+	private static final long MIN_BUDGET = 1024;
+
+	// Chessboard with pieces
+	private Board board = Board.getInstance();
+
+	// Lends its table, book and bitbase; its own threads stay idle
+	private final Engine engine;
+	private final Search search;
+	private final MoveList bookList = new MoveList();
+
+	private SearchListener listener;
+	private boolean running = false;
+	private double nodesPerSecond = INITIAL_NPS;
+	private float lastSearchTime = 0; // seconds spent searching in the last frame
+
+	// Best move so far and its marks on the board
+	private int shownMove = Move.NULL;
+	private final QuadSuggestedControl marks[] = new QuadSuggestedControl[2];
+
+	public FrameSearchState(Engine engine)
+	{
+		this.engine = engine;
+		this.search = new Search(engine.getTT());
+		search.setBitbase(engine.getBitbase());
+	}
+
+	/**
+	 * Starts searching a snapshot of the position, stopping any previous search.
+	 * Like Engine.go(), but the listener is called on the render thread.
+	 */
+	public void go(Position pos, SearchLimits limits, SearchListener listener)
+	{
+		stop();
+		OpeningBook book = engine.getBook();
+		if (book != null && !limits.infinite && !limits.ponder)
+		{
+			int move = book.pickMove(pos, bookList);
+			if (move != Move.NULL)
+			{
+				listener.onBestMove(move, Move.NULL);
+				return;
+			}
+		}
+		engine.getTT().newSearch();
+		search.reset();
+		search.begin(pos, limits);
+		this.listener = listener;
+		this.running = true;
+	}
+
+	/**
+	 * Stops the current search. Its listener still gets onBestMove()
+	 * with the best move of the last completed iteration.
+	 */
+	public void stop()
+	{
+		if (running)
+			finish();
+	}
+
+	public boolean isRunning() {	return this.running;	}
+
+	/**
+	 * The expected reply was played, see Engine.ponderHit()
+	 */
+	public void ponderHit()
+	{
+		if (running)
+			search.ponderHit();
+	}
+
+	private void finish()
+	{
+		running = false;
+		showMove(Move.NULL);
+		listener.onBestMove(search.getBestMove(), search.getPonderMove());
+	}
+
+	@Override
+	public void update(float tpf)
+	{
+		if (!running)	return;
+
+		// What the rest of the last frame took, the search gets what's left
+		float others = Math.max(tpf - lastSearchTime, 0);
+		float slice = Math.max(FRAME_TIME - others, MIN_SLICE);
+		long budget = Math.max((long) (nodesPerSecond * slice), MIN_BUDGET);
+
+		long nodes = search.getNodes();
+		long start = System.nanoTime();
+		boolean done = search.step(budget, listener);
+		long nanos = System.nanoTime() - start;
+		lastSearchTime = nanos / 1e9f;
+		if (nanos > 0)
+			nodesPerSecond = 0.75 * nodesPerSecond
+					+ 0.25 * (search.getNodes() - nodes) * 1e9 / nanos;
+
+		// A pondering search waits for the hit or stop() once it's deep enough
+		if (done && !search.isPondering())
+			finish();
+		else
+			showMove(search.getBestMove());
+	}
+
+	/**
+	 * Marks the from and to squares of the move, Move.NULL to clear them
+	 */
+	private void showMove(int move)
+	{
+		if (move == shownMove)	return;
+		for (int i = 0; i < marks.length; i++)
+			if (marks[i] != null)
+			{
+				marks[i].detach();
+				marks[i] = null;
+			}
+		shownMove = move;
+		if (move == Move.NULL)	return;
+		int squares[] = {Move.from(move), Move.to(move)};
+		for (int i = 0; i < marks.length; i++)
+		{
+			marks[i] = new QuadSuggestedControl(squares[i]);
+			board.getBoardMesh().addControl(marks[i]);
+		}
+	}
+
+	@Override
+	public void cleanup()
+	{
+		super.cleanup();
+		stop();
+	}
+}
@@ -55,5 +55,6 @@ public class PieceCapturedControl extends StagedControl
 	protected void controlDetach()
 	{
 		board.detach(captured);
+		factory.release(captured);
 	}
 }
@@ -3,7 +3,9 @@ package control;
 import utils.Util;
 import chess.Board;
 import chess.BoardManager;
+import chess.Move;
 import chess.Piece;
+import chess.Position;
 
 /**
  * @author Jim Fan  (c) 2014
@@ -14,14 +16,24 @@ public class PieceMoveControl extends StagedControl
 	private int newSq;
 	private int newX;
 	private int newY;
+	private int promo; // promotion piece, NON for a queen
 	private BoardManager board = Board.getInstance().getBoardManager() ;
 	
 	private Piece me;
 	private int oldSq;
 	
 	public PieceMoveControl(int sq)
+	{
+		this(sq, Position.NON);
+	}
+	
+	/**
+	 * @param promo the piece a pawn promotes to
+	 */
+	public PieceMoveControl(int sq, int promo)
 	{
 		this.newSq = sq;
+		this.promo = promo;
 		int[] newXY = Util.toXY(sq);
 		this.newX = newXY[0];
 		this.newY = newXY[1];
@@ -38,17 +50,21 @@ public class PieceMoveControl extends StagedControl
 	@Override
 	protected void controlProcess(float tpf)
 	{
-		// We don't do anything if we're trying to capture a friendly piece
-		if (newSq != oldSq &&
-				board.getSide(oldSq) != board.getSide(newSq))
+		// We don't do anything unless it's a legal move for the side to move
+		int move = board.findMove(oldSq, newSq, promo);
+		if (move != Move.NULL)
 		{
-    		Piece captured = board.move(oldSq, newSq);
+    		Piece captured = board.makeMove(move);
     		
     		// Takes care of the dissolving away effect
     		if (captured != null)
     			captured.addControl(new PieceCapturedControl());
     		
     		me.locate(newX, newY);
+    		
+    		// The pawn model turns into the promoted piece
+    		if (Move.flag(move) == Move.PROMOTION)
+    			Board.getInstance().renderPiece(newSq);
 		}
 		
 		detach(); // unconditional exit after one update.
@@ -1,9 +1,12 @@
 package control;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import chess.Board;
 import chess.Piece;
 
-import com.jme3.scene.Geometry;
+import com.jme3.math.ColorRGBA;
 
 /**
  * @author Jim Fan  (c) 2014
@@ -13,17 +16,38 @@ public class PieceSelectedControl extends StagedControl
 {
 	private Board board = Board.getInstance();
 	
-	private Geometry quad;
+	private static final ColorRGBA TARGET_COLOR = ColorRGBA.Orange;
+	
 	private Piece piece;
 	private QuadSelectedControl selectControl;
+	// Legal and book moves of the selected piece
+	private List<QuadSuggestedControl> suggestControls = new ArrayList<QuadSuggestedControl>();
 
 	@Override
 	protected void controlInit(float tpf)
 	{
 		piece = (Piece) this.spatial;
-		quad = board.getQuadUnderSelectedPiece();
-		selectControl = new QuadSelectedControl();
-		quad.addControl(selectControl);
+		selectControl = new QuadSelectedControl(piece.getSq());
+		board.getBoardMesh().addControl(selectControl);
+		
+		// Computed once for the selection, highlighted all at once. 
+		// Book moves are added last and keep their own color
+		suggest(board.getLegalTargets(piece.getSq()), TARGET_COLOR);
+		suggest(board.getBookTargets(piece.getSq()), QuadSuggestedControl.BOOK_COLOR);
+	}
+	
+	/**
+	 * Marks every square of the bitboard
+	 */
+	private void suggest(long targets, ColorRGBA color)
+	{
+		for (; targets != 0; targets &= targets - 1)
+		{
+			int sq = Long.numberOfTrailingZeros(targets);
+			QuadSuggestedControl suggest = new QuadSuggestedControl(sq, color);
+			board.getBoardMesh().addControl(suggest);
+			suggestControls.add(suggest);
+		}
 	}
 
 	@Override
@@ -46,6 +70,8 @@ public class PieceSelectedControl extends StagedControl
 	{
 		// Restore the old quad color
 		selectControl.detach();
+		for (QuadSuggestedControl suggest : suggestControls)
+			suggest.detach();
 	}
 	
 }
@@ -1,6 +1,6 @@
 package control;
 
-import utils.Util;
+import chess.Board;
 
 import com.jme3.math.ColorRGBA;
 import com.jme3.renderer.*;
@@ -8,40 +8,53 @@ import com.jme3.scene.control.AbstractControl;
 
 /**
  * @author Jim Fan  (c) 2014
- * Highlights the quad when the mouse hovers over it
+ * Highlights the quad when the mouse hovers over it. 
+ * A single control on the board mesh, moved by QuadHoverState when the cursor 
+ * enters another square; colors its square in the square color texture
  */
 public class QuadHoverControl extends AbstractControl
 {
+	private Board board = Board.getInstance();
+	
 	private static final ColorRGBA HIGH_COLOR = ColorRGBA.Yellow;
+	// Square under the cursor, -1 if none
+	private int sq = -1;
 
-	// This variable is used to implement the "one-off" behavior
-	// The highlighted quad should stay high only as long as the mouse hovers over it. 
+	// The square stays high only as long as the mouse hovers over it, 
+	// and not after another control gave it its own color
 	private boolean highlighted = false;
 	private ColorRGBA original;
 	
-	@Override
-	protected void controlUpdate(float tpf)
+	public int getSq() {	return this.sq;	}
+	
+	/**
+	 * Moves the highlight to another square, restoring the last one
+	 * @param sq -1 to highlight nothing
+	 */
+	public void setSq(int sq)
 	{
-		// SelectedControl and HoverControl are mutually exclusive. 
-		if (spatial == null) return; // means it's already detached
-		
-		if (!highlighted)
-		{
-    		this.original = Util.getColor(spatial);
-			setColor(HIGH_COLOR);
-			highlighted = true;
-		}
-		else
-		{
-			setColor(this.original);
-			spatial.removeControl(this);
-		}
+		if (sq == this.sq)	return;
+		release(this.sq);
+		this.sq = sq;
+		if (sq < 0)	return;
+		this.original = board.getSquareColor(sq);
+		board.setSquareColor(sq, HIGH_COLOR);
+		highlighted = true;
 	}
 	
-	private void setColor(ColorRGBA c)
+	/**
+	 * Restores the color of the square if it's highlighted, 
+	 * and leaves it alone until the cursor comes back to it
+	 */
+	public void release(int sq)
 	{
-		Util.setColor(spatial, c);
+		if (!highlighted || sq != this.sq)	return;
+		board.setSquareColor(sq, this.original);
+		highlighted = false;
 	}
+	
+	@Override
+	protected void controlUpdate(float tpf) { }
 
 	@Override
 	protected void controlRender(RenderManager rm, ViewPort vp) { }
@@ -1,6 +1,5 @@
 package control;
 
-import utils.Util;
 import chess.Board;
 
 import com.jme3.math.ColorRGBA;
@@ -8,6 +7,7 @@ import com.jme3.math.ColorRGBA;
 /**
  * @author Jim Fan  (c) 2014
  * When the quad is under the selected piece
+ * Attached to the board mesh, colors its square in the square color texture
  */
 public class QuadSelectedControl extends StagedControl
 {
@@ -15,27 +15,35 @@ public class QuadSelectedControl extends StagedControl
 	
 	private static final ColorRGBA HIGH_COLOR = ColorRGBA.Green;
 	private ColorRGBA original;
+	private final int sq;
+	
+	public QuadSelectedControl(int sq)
+	{
+		this.sq = sq;
+	}
 	
 	@Override
 	protected void controlInit(float tpf)
 	{
+		// The hover color isn't the one to restore
+		board.removeHover(sq);
 		if (original == null)
-			original = Util.getColor(spatial);
-		Util.setColor(spatial, HIGH_COLOR);
+			original = board.getSquareColor(sq);
+		board.setSquareColor(sq, HIGH_COLOR);
 	}
 
 	@Override
 	protected void controlProcess(float tpf)
 	{
 		// We don't want hovering to be activated on the selected quad
-		spatial.removeControl(QuadHoverControl.class);
+		board.removeHover(sq);
 	}
 
 	@Override
 	protected void controlDetach()
 	{
 		// Restore the old color
-		Util.setColor(spatial, original);
+		board.setSquareColor(sq, original);
 	}
 	
 }
@@ -0,0 +1,52 @@
+package control;
+
+import chess.Board;
+
+import com.jme3.math.ColorRGBA;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Marks a target square of the selected piece: a legal target, 
+ * or one suggested by the opening book
+ */
+public class QuadSuggestedControl extends StagedControl
+{
+	private Board board = Board.getInstance();
+	
+	public static final ColorRGBA BOOK_COLOR = ColorRGBA.Cyan;
+	private int sq;
+	private ColorRGBA color;
+	
+	/**
+	 * A book suggestion
+	 */
+	public QuadSuggestedControl(int sq)
+	{
+		this(sq, BOOK_COLOR);
+	}
+	
+	public QuadSuggestedControl(int sq, ColorRGBA color)
+	{
+		this.sq = sq;
+		this.color = color;
+	}
+	
+	@Override
+	protected void controlInit(float tpf)
+	{
+		board.removeHover(sq);
+		board.setSquareColor(sq, color);
+	}
+
+	@Override
+	protected void controlProcess(float tpf) {}
+
+	@Override
+	protected void controlDetach()
+	{
+		// Hovering would restore the suggestion color later
+		board.removeHover(sq);
+		board.setSquareColor(sq, board.getQuadColor(sq));
+	}
+	
+}
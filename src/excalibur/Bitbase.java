@@ -0,0 +1,107 @@
+package excalibur;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import chess.Position;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Endgame bitbases for king and pawn/rook/queen against a lone king.
+ * One bit per position: does the stronger side win? Built by BitbaseGen.
+ *
+ * The file is memory-mapped; a probe is one index computation and one byte read.
+ * Tables are stored with the stronger side as white. A position with black
+ * as the stronger side is mirrored vertically before the lookup.
+ */
+public class Bitbase
+{
+	// Tables, in file order
+	public static final int KPK = 0, KRK = 1, KQK = 2,
+			TABLE_N = 3;
+	// Index: strong side not to move (1 bit), strong king, weak king, piece
+	static final int TABLE_BITS = 2 * SQ_N * SQ_N * SQ_N,
+			TABLE_BYTES = TABLE_BITS / 8;
+
+	// File layout: tag, version, then the tables
+	static final int FILE_TAG = 0x45584242; // "EXBB"
+	static final int FILE_VERSION = 1;
+	static final int HEADER_BYTES = 8;
+	static final int FILE_BYTES = HEADER_BYTES + TABLE_N * TABLE_BYTES;
+
+	// Probe results, from the side to move
+	public static final int UNKNOWN = -1, DRAW = 0, WIN = 1, LOSS = 2;
+
+	private final MappedByteBuffer map;
+
+	/**
+	 * Maps a file written by BitbaseGen
+	 * @throws IOException if it can't be read or is not a bitbase file
+	 */
+	public Bitbase(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() != FILE_BYTES)
+				throw new IOException(file + ": not a bitbase file");
+			map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, FILE_BYTES);
+		}
+		finally {
+			raf.close();
+		}
+		if (map.getInt(0) != FILE_TAG || map.getInt(4) != FILE_VERSION)
+			throw new IOException(file + ": not a bitbase file, or an old one");
+	}
+
+	/**
+	 * Bit index in a table
+	 * @param strongToMove 0 if the strong side is to move, 1 otherwise
+	 */
+	static int index(int strongToMove, int strongKing, int weakKing, int piece)
+	{
+		return strongToMove << 18 | strongKing << 12 | weakKing << 6 | piece;
+	}
+
+	/**
+	 * Table of the strong side's piece, -1 if none
+	 */
+	static int table(int piece)
+	{
+		switch (piece)
+		{
+		case PAWN: return KPK;
+		case ROOK: return KRK;
+		case QUEEN: return KQK;
+		}
+		return -1;
+	}
+
+	/**
+	 * Exact result of a position with 3 pieces, UNKNOWN for other material.
+	 * A lone minor piece can't win: KNK and KBK are DRAW.
+	 */
+	public int probe(Position pos)
+	{
+		long occ = pos.occupied();
+		if (popCount(occ) != 3)	return UNKNOWN;
+		int strong = popCount(pos.occupancy(W)) == 2 ? W : B;
+		int pieceSq = lsb(pos.occupancy(strong) & ~pos.pieces(strong, KING));
+		int piece = pos.getPiece(pieceSq);
+		if (piece == KNIGHT || piece == BISHOP)	return DRAW;
+		int t = table(piece);
+
+		// Strong side plays up the board
+		int flip = strong == W ? 0 : 56;
+		int idx = index(pos.getTurn() == strong ? 0 : 1, pos.kingSq(strong) ^ flip,
+				pos.kingSq(strong ^ 1) ^ flip, pieceSq ^ flip);
+		boolean win = (map.get(HEADER_BYTES + t * TABLE_BYTES + (idx >>> 3)) >> (idx & 7) & 1) != 0;
+		if (!win)	return DRAW;
+		return pos.getTurn() == strong ? WIN : LOSS;
+	}
+}
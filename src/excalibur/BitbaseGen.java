@@ -0,0 +1,313 @@
+package excalibur;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+import static excalibur.Bitbase.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Builds the KPK, KRK and KQK bitbases by retrograde analysis (headless).
+ *
+ * Every position starts unknown, except mates, stalemates and immediate
+ * draws. Then each pass resolves the positions whose successors are known:
+ * the strong side wins if one move wins, the weak side draws if one move draws.
+ * Passes repeat until nothing changes; what's left is a draw by cycling.
+ * Each pass is split over all cores with fork-join.
+ * KPK promotions look up KQK and KRK, so those are built first.
+ *
+ * java -cp bin excalibur.BitbaseGen file [threads...]
+ * With several thread counts, the tables are built once per count.
+ */
+public class BitbaseGen
+{
+	// Position states
+	private static final byte UNRESOLVED = 0, WON = 1, DRAWN = 2, ILLEGAL = 3;
+
+	// Positions per fork-join leaf task
+	private static final int GRAIN = 1 << 12;
+
+	private final ForkJoinPool pool;
+	// Results of each table, the strong side is white
+	private final byte results[][] = new byte[TABLE_N][];
+
+	public BitbaseGen(int threads)
+	{
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Builds all tables
+	 * @return number of passes per table
+	 */
+	public int[] generate()
+	{
+		int passes[] = new int[TABLE_N];
+		// Promotion needs the queen and rook tables
+		for (int t : new int[] {KQK, KRK, KPK})
+		{
+			results[t] = new byte[TABLE_BITS];
+			pool.invoke(new Pass(t, 0, TABLE_BITS, true));
+			int n = 1;
+			while (pool.invoke(new Pass(t, 0, TABLE_BITS, false)) > 0)
+				++ n;
+			passes[t] = n;
+		}
+		return passes;
+	}
+
+	/**
+	 * One pass over a range of positions
+	 * @return number of positions resolved
+	 */
+	private class Pass extends RecursiveTask<Integer>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int table, from, to;
+		private final boolean init;
+
+		Pass(int table, int from, int to, boolean init)
+		{
+			this.table = table;
+			this.from = from;
+			this.to = to;
+			this.init = init;
+		}
+
+		@Override
+		protected Integer compute()
+		{
+			if (to - from > GRAIN)
+			{
+				int mid = (from + to) >>> 1;
+				Pass left = new Pass(table, from, mid, init);
+				left.fork();
+				int right = new Pass(table, mid, to, init).compute();
+				return right + left.join();
+			}
+
+			byte res[] = results[table];
+			int resolved = 0;
+			for (int idx = from; idx < to; idx++)
+			{
+				if (!init && res[idx] != UNRESOLVED)	continue;
+				byte r = init ? classify(table, idx) : resolve(table, idx);
+				if (r != UNRESOLVED)
+				{
+					res[idx] = r;
+					++ resolved;
+				}
+			}
+			return resolved;
+		}
+	}
+
+
+	/******************** Rules ********************/
+	/**
+	 * Squares attacked by the strong side's piece
+	 */
+	private static long pieceAttacks(int table, int sq, long occ)
+	{
+		switch (table)
+		{
+		case KPK: return PAWN_ATTACKS[W][sq];
+		case KRK: return rookAttacks(sq, occ);
+		default: return queenAttacks(sq, occ);
+		}
+	}
+
+	/**
+	 * First pass: illegal positions, and what is known without looking ahead
+	 */
+	private byte classify(int table, int idx)
+	{
+		int weakToMove = idx >>> 18, sk = idx >>> 12 & 63, wk = idx >>> 6 & 63, p = idx & 63;
+		if (sk == wk || sk == p || wk == p || has(KING_ATTACKS[sk], wk))
+			return ILLEGAL;
+		if (table == KPK && (has(RANK_1 | RANK_8, p)))
+			return ILLEGAL;
+		long occ = bit(sk) | bit(wk) | bit(p);
+		boolean check = has(pieceAttacks(table, p, occ), wk);
+		if (weakToMove == 0)
+			return check ? ILLEGAL : UNRESOLVED;
+
+		// Weak side to move
+		long flight = weakKingMoves(table, sk, wk, p, occ);
+		if (flight == 0)
+			return check ? WON : DRAWN; // mate or stalemate
+		// Takes the lone piece: only kings are left
+		if (has(flight, p))
+			return DRAWN;
+		return UNRESOLVED;
+	}
+
+	/**
+	 * Where the weak king can go, including capturing an unprotected piece
+	 */
+	private static long weakKingMoves(int table, int sk, int wk, int p, long occ)
+	{
+		// Sliders see through the king's square: it can't step back along the ray
+		long attacked = KING_ATTACKS[sk] | pieceAttacks(table, p, occ ^ bit(wk));
+		return KING_ATTACKS[wk] & ~attacked & ~bit(sk);
+	}
+
+	/**
+	 * Later passes: the result if the successors tell it, else UNRESOLVED
+	 */
+	private byte resolve(int table, int idx)
+	{
+		int weakToMove = idx >>> 18, sk = idx >>> 12 & 63, wk = idx >>> 6 & 63, p = idx & 63;
+		long occ = bit(sk) | bit(wk) | bit(p);
+		byte res[] = results[table];
+
+		if (weakToMove == 1)
+		{
+			// Won only if every move loses
+			boolean allWon = true;
+			for (long bb = weakKingMoves(table, sk, wk, p, occ); bb != 0; bb = popLsb(bb))
+			{
+				byte r = res[index(0, sk, lsb(bb), p)];
+				if (r == DRAWN)	return DRAWN;
+				allWon &= r == WON;
+			}
+			return allWon ? WON : UNRESOLVED;
+		}
+
+		// Strong side to move: won if any move wins
+		boolean allDrawn = true;
+		for (long bb = KING_ATTACKS[sk] & ~KING_ATTACKS[wk] & ~occ; bb != 0; bb = popLsb(bb))
+		{
+			byte r = res[index(1, lsb(bb), wk, p)];
+			if (r == WON)	return WON;
+			allDrawn &= r == DRAWN;
+		}
+
+		long targets;
+		if (table == KPK)
+		{
+			targets = 0;
+			int push = p + 8;
+			if (!has(occ, push))
+			{
+				if (has(RANK_8, push))
+				{
+					// A queen, or a rook where the queen stalemates
+					byte q = results[KQK][index(1, sk, wk, push)];
+					byte r = results[KRK][index(1, sk, wk, push)];
+					if (q == WON || r == WON)	return WON;
+				}
+				else
+				{
+					targets = bit(push);
+					if (has(RANK_2, p) && !has(occ, push + 8))
+						targets |= bit(push + 8);
+				}
+			}
+		}
+		else
+			targets = pieceAttacks(table, p, occ) & ~occ;
+
+		for (long bb = targets; bb != 0; bb = popLsb(bb))
+		{
+			byte r = res[index(1, sk, wk, lsb(bb))];
+			if (r == WON)	return WON;
+			allDrawn &= r == DRAWN;
+		}
+		return allDrawn ? DRAWN : UNRESOLVED;
+	}
+
+
+	/******************** Output ********************/
+	/**
+	 * Counts of each state in a table, indexed by state
+	 */
+	public long[] count(int table)
+	{
+		long n[] = new long[4];
+		for (byte r : results[table])
+			++ n[r];
+		return n;
+	}
+
+	/**
+	 * Writes all tables through a memory mapping. Unresolved positions are draws
+	 */
+	public void write(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(FILE_BYTES);
+			MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+			map.putInt(FILE_TAG);
+			map.putInt(FILE_VERSION);
+			for (int t = 0; t < TABLE_N; t++)
+				for (int idx = 0; idx < TABLE_BITS; idx += 8)
+				{
+					int b = 0;
+					for (int i = 0; i < 8; i++)
+						if (results[t][idx + i] == WON)
+							b |= 1 << i;
+					map.put((byte) b);
+				}
+			map.force();
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	public void shutdown() {	pool.shutdown();	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			System.out.println("java -cp bin excalibur.BitbaseGen file [threads...]");
+			return;
+		}
+		int counts[] = new int[Math.max(args.length - 1, 1)];
+		counts[0] = Runtime.getRuntime().availableProcessors();
+		for (int i = 1; i < args.length; i++)
+			counts[i - 1] = Integer.parseInt(args[i]);
+
+		// warm up the JIT before timing
+		BitbaseGen warmUp = new BitbaseGen(counts[0]);
+		warmUp.generate();
+		warmUp.shutdown();
+
+		final String NAMES[] = {"KPK", "KRK", "KQK"};
+		BitbaseGen gen = null;
+		long baseNanos = 0;
+		for (int threads : counts)
+		{
+			gen = new BitbaseGen(threads);
+			long start = System.nanoTime();
+			int passes[] = gen.generate();
+			long nanos = System.nanoTime() - start;
+			gen.shutdown();
+			if (baseNanos == 0)	baseNanos = nanos;
+
+			long positions = (long) TABLE_N * TABLE_BITS;
+			System.out.printf("%d thread(s): %,d positions  %d ms  %,d positions/s  (x%.2f)%n",
+					threads, positions, nanos / 1000000, positions * 1000000000L / Math.max(nanos, 1),
+					(double) baseNanos / Math.max(nanos, 1));
+			for (int t = 0; t < TABLE_N; t++)
+			{
+				long n[] = gen.count(t);
+				System.out.printf("   %s: %,d wins  %,d draws  %,d illegal  %d passes%n",
+						NAMES[t], n[WON], n[DRAWN] + n[UNRESOLVED], n[ILLEGAL], passes[t]);
+			}
+		}
+		gen.write(new File(args[0]));
+		System.out.println("Written to " + args[0]);
+	}
+}
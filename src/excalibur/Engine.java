@@ -0,0 +1,356 @@
+package excalibur;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import chess.Move;
+import chess.MoveList;
+import chess.OpeningBook;
+import chess.Position;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * The Excalibur engine: runs searches on its own threads,
+ * so that the jME update loop never waits for it.
+ *
+ * go() takes a snapshot of the position and returns immediately.
+ * Results come back through the SearchListener, on the search thread.
+ *
+ * Lazy SMP: with N threads, N searches share the transposition table.
+ * The helpers skip depths in staggered patterns and only fill the table;
+ * the main search alone reports and decides the move.
+ *
+ * With an opening book, a book move is played without searching.
+ * With endgame bitbases, 3-piece endings are scored exactly.
+ */
+public class Engine
+{
+	public static final int DEFAULT_HASH_MB = 64;
+
+	private final TranspositionTable tt;
+	// Replaced on the main executor thread only
+	private volatile Search searches[];
+	private int threads;
+	// Runs the main search of each job, one job at a time
+	private final ExecutorService mainExecutor;
+	// Runs the helpers, null with a single thread
+	private volatile ExecutorService helperExecutor;
+
+	// The latest search job. Older ones were replaced by go() and must not run
+	private Job current;
+
+	// null if none
+	private volatile OpeningBook book;
+	// Only used by the main executor thread
+	private final MoveList bookList = new MoveList();
+	// null if none
+	private volatile Bitbase bitbase;
+
+	// Helpers don't report anything
+	private static final SearchListener SILENT = new SearchListener()
+	{
+		@Override
+		public void onInfo(int depth, int score, long nodes, long millis, int[] pv, int pvLength) {}
+
+		@Override
+		public void onBestMove(int move, int ponderMove) {}
+	};
+
+	public Engine()
+	{
+		this(DEFAULT_HASH_MB, 1);
+	}
+
+	public Engine(int hashMb)
+	{
+		this(hashMb, 1);
+	}
+
+	public Engine(int hashMb, int threads)
+	{
+		this.tt = new TranspositionTable(hashMb);
+		this.mainExecutor = Executors.newSingleThreadExecutor(daemonFactory("Excalibur"));
+		setThreads(threads);
+	}
+
+	private static ThreadFactory daemonFactory(final String name)
+	{
+		return new ThreadFactory()
+		{
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, count++ == 0 ? name : name + "-" + count);
+				// never keep the JVM alive after the window is closed
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	public TranspositionTable getTT() {	return this.tt;	}
+
+	/**
+	 * Resizes the transposition table. Stops the current search
+	 */
+	public synchronized void setHashMb(final int megabytes)
+	{
+		stop();
+		// Between two jobs, like setThreads()
+		mainExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run() {	tt.resize(megabytes);	}
+		});
+	}
+
+	/**
+	 * Clears the transposition table, e.g. for a new game. Stops the current search
+	 */
+	public synchronized void clearHash()
+	{
+		stop();
+		mainExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run() {	tt.clear();	}
+		});
+	}
+
+	/**
+	 * Pawn hash hit rate of all search threads, 0 to 1
+	 */
+	public double getPawnHitRate()
+	{
+		long probes = 0, hits = 0;
+		for (Search s : searches)
+		{
+			probes += s.getPawnHash().probes;
+			hits += s.getPawnHash().hits;
+		}
+		return probes == 0 ? 0 : (double) hits / probes;
+	}
+
+	/**
+	 * Table statistics, one line each
+	 */
+	public String getStats()
+	{
+		Search team[] = searches;
+		long probes = 0;
+		for (Search s : team)
+			probes += s.getPawnHash().probes;
+		return tt + String.format("%nPawn hash %d x %d KB: hit rate %.1f%%, %d probes",
+				team.length, PawnHashTable.DEFAULT_KB, 100 * getPawnHitRate(), probes);
+	}
+
+	public OpeningBook getBook() {	return this.book;	}
+
+	/**
+	 * @param book null to always search
+	 */
+	public void setBook(OpeningBook book) {	this.book = book;	}
+
+	public Bitbase getBitbase() {	return this.bitbase;	}
+
+	public synchronized int getThreads() {	return this.threads;	}
+
+	/**
+	 * Stops the current search
+	 * @param bitbase null if none
+	 */
+	public synchronized void setBitbase(final Bitbase bitbase)
+	{
+		stop();
+		this.bitbase = bitbase;
+		// Jobs run one at a time on the main executor, so no search is running there
+		mainExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (Search s : searches)
+					s.setBitbase(bitbase);
+			}
+		});
+	}
+
+	/**
+	 * Number of search threads. Stops the current search.
+	 */
+	public synchronized void setThreads(final int threads)
+	{
+		final int n = Math.max(threads, 1);
+		this.threads = n;
+		if (searches == null) // from the ctor
+		{
+			createSearches(n);
+			return;
+		}
+		stop();
+		// Replaced between two jobs, never under a running search
+		mainExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run() {	createSearches(n);	}
+		});
+	}
+
+	private void createSearches(int threads)
+	{
+		if (searches != null)
+			for (Search s : searches)
+				tt.removeStats(s.getTTStats());
+		// All helpers are done: every job waits for them
+		if (helperExecutor != null)
+			helperExecutor.shutdownNow();
+
+		Search team[] = new Search[threads];
+		for (int i = 0; i < threads; i++)
+			team[i] = new Search(tt);
+		for (int i = 0; i < threads; i++)
+		{
+			team[i].setTeam(i, team);
+			team[i].setBitbase(bitbase);
+		}
+		searches = team;
+		helperExecutor = threads > 1 ?
+				Executors.newFixedThreadPool(threads - 1, daemonFactory("Excalibur-helper")) : null;
+	}
+
+	/**
+	 * Nodes searched by all threads in the current or last search
+	 */
+	public long getNodes() {	return searches[0].getTeamNodes();	}
+
+	/**
+	 * Starts searching a snapshot of the position, stopping any previous search.
+	 * Returns at once, the result comes through the listener.
+	 */
+	public synchronized void go(Position pos, SearchLimits limits, SearchListener listener)
+	{
+		stop();
+		current = new Job(new Position(pos), limits, listener);
+		mainExecutor.execute(current);
+	}
+
+	/**
+	 * The opponent played the expected reply: the pondering search
+	 * (see SearchLimits.ponder) goes on with its tree and table, now on its own clock
+	 */
+	public synchronized void ponderHit()
+	{
+		if (current == null)	return;
+		current.ponderHit = true;
+		searches[0].ponderHit();
+	}
+
+	/**
+	 * Stops the current search. Its listener still gets onBestMove()
+	 * with the best move of the last completed iteration, or a book move
+	 * or the first legal move if it was stopped before it began.
+	 */
+	public synchronized void stop()
+	{
+		if (current != null)
+			current.stopped = true;
+		for (Search s : searches)
+			s.stop();
+	}
+
+	/**
+	 * Stops searching and releases the search threads
+	 */
+	public void shutdown()
+	{
+		stop();
+		mainExecutor.shutdownNow();
+		if (helperExecutor != null)
+			helperExecutor.shutdownNow();
+	}
+
+	/**
+	 * A search request. Runs only if no newer request came in meanwhile.
+	 */
+	private class Job implements Runnable
+	{
+		private final Position pos;
+		private final SearchLimits limits;
+		private final SearchListener listener;
+		// Set under the engine lock, maybe before the search begins
+		private boolean ponderHit;
+		private boolean stopped;
+
+		Job(Position pos, SearchLimits limits, SearchListener listener)
+		{
+			this.pos = pos;
+			this.limits = limits;
+			this.listener = listener;
+		}
+
+		@Override
+		public void run()
+		{
+			final Search team[];
+			synchronized (Engine.this)
+			{
+				if (this != current)	return;
+				team = searches;
+				// Under the lock, so that a stop() can't slip in before the reset
+				for (Search s : team)
+					s.reset();
+				if (ponderHit)
+					team[0].ponderHit();
+				// Stopped before it began: the search still picks a move
+				if (stopped)
+					for (Search s : team)
+						s.stop();
+				tt.newSearch();
+			}
+
+			// Infinite searches are for analysis, pondering builds a tree: no book
+			OpeningBook book = Engine.this.book;
+			if (book != null && !limits.infinite && !limits.ponder)
+			{
+				int move = book.pickMove(pos, bookList);
+				if (move != Move.NULL)
+				{
+					listener.onBestMove(move, Move.NULL);
+					return;
+				}
+			}
+
+			// Helpers search until the main thread is done
+			final CountDownLatch helpersDone = new CountDownLatch(team.length - 1);
+			final SearchLimits helperLimits = SearchLimits.infinite();
+			helperLimits.depth = limits.depth;
+			for (int i = 1; i < team.length; i++)
+			{
+				final Search helper = team[i];
+				helperExecutor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try {	helper.think(pos, helperLimits, SILENT);	}
+						finally {	helpersDone.countDown();	}
+					}
+				});
+			}
+
+			Search main = team[0];
+			int best = main.think(pos, limits, listener);
+
+			for (int i = 1; i < team.length; i++)
+				team[i].stop();
+			try {	helpersDone.await();	}
+			catch (InterruptedException e) {	Thread.currentThread().interrupt();	}
+
+			listener.onBestMove(best, main.getPonderMove());
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package excalibur;
+
+import static chess.Position.*;
+
+import chess.Eval;
+import chess.Position;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Cache of the pawn evaluation terms, keyed by Position.getPawnKey().
+ *
+ * Pawns move rarely, so nearly every evaluation finds its pawn structure here
+ * instead of recomputing it. Each search thread owns its table: no sharing,
+ * no locks. Entries are 3 longs in one primitive array, always replaced:
+ * key | structure score, mg 32-63, eg 0-31 | shelter penalties, 10 bits each,
+ * [side * WING_N + wing]
+ *
+ * Size in KB per thread with -Dexcalilux.pawnHashKb=N
+ */
+public class PawnHashTable
+{
+	public static final int DEFAULT_KB = Integer.getInteger("excalilux.pawnHashKb", 1024);
+
+	private static final int ENTRY_LONGS = 3, ENTRY_BYTES = ENTRY_LONGS * 8;
+	private static final int SHELTER_BITS = 10, SHELTER_MASK = (1 << SHELTER_BITS) - 1;
+	// No pawns has key 0, so empty slots are marked with a key no position gets in practice
+	private static final long EMPTY = -1;
+
+	private final long table[];
+	private final int indexMask;
+	private final int kilobytes;
+
+	// Written by the owning thread only, read by anyone for statistics
+	public long probes, hits;
+
+	/**
+	 * @param kilobytes size, rounded down to a power of 2 entries
+	 */
+	public PawnHashTable(int kilobytes)
+	{
+		int entries = Integer.highestOneBit(Math.max((int) Math.min(((long) kilobytes << 10) / ENTRY_BYTES,
+				1 << 24), 1));
+		this.table = new long[entries * ENTRY_LONGS];
+		this.indexMask = entries - 1;
+		this.kilobytes = kilobytes;
+		clear();
+	}
+
+	public int getKilobytes() {	return this.kilobytes;	}
+
+	/**
+	 * Empties the table and its counters
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < table.length; i += ENTRY_LONGS)
+			table[i] = EMPTY;
+		probes = hits = 0;
+	}
+
+	/**
+	 * Finds or computes the pawn terms of the position
+	 * @return the entry, for mg(), eg() and shelter()
+	 */
+	public int probe(Position pos)
+	{
+		long key = pos.getPawnKey();
+		int e = ((int) key & indexMask) * ENTRY_LONGS;
+		++ probes;
+		if (table[e] == key)
+		{
+			++ hits;
+			return e;
+		}
+
+		table[e] = key;
+		table[e + 1] = (long) Eval.pawnStructure(pos, false) << 32
+				| (Eval.pawnStructure(pos, true) & 0xFFFFFFFFL);
+		long shelter = 0;
+		for (int side = W; side < SIDE_N; side++)
+			for (int wing = 0; wing < Eval.WING_N; wing++)
+				shelter |= (long) Math.min(Eval.shelterPenalty(pos, side, wing), SHELTER_MASK)
+						<< (SHELTER_BITS * (side * Eval.WING_N + wing));
+		table[e + 2] = shelter;
+		return e;
+	}
+
+	/**
+	 * Middlegame pawn structure score, white minus black
+	 */
+	public int mg(int e) {	return (int) (table[e + 1] >> 32);	}
+
+	/**
+	 * Endgame pawn structure score, white minus black
+	 */
+	public int eg(int e) {	return (int) table[e + 1];	}
+
+	/**
+	 * Middlegame shelter penalty of a king of the side on the wing
+	 */
+	public int shelter(int e, int side, int wing)
+	{
+		return (int) (table[e + 2] >>> (SHELTER_BITS * (side * Eval.WING_N + wing))) & SHELTER_MASK;
+	}
+
+	/**
+	 * Fraction of probes that found their pawns, 0 to 1
+	 */
+	public double hitRate() {	return probes == 0 ? 0 : (double) hits / probes;	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("Pawn hash %d KB: hit rate %.1f%%, %d probes",
+				kilobytes, 100 * hitRate(), probes);
+	}
+}
@@ -0,0 +1,681 @@
+package excalibur;
+
+import static chess.Position.*;
+import static chess.Bitboard.*;
+import static excalibur.TranspositionTable.*;
+
+import chess.Eval;
+import chess.Move;
+import chess.MoveGen;
+import chess.MoveList;
+import chess.Position;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Excalibur search: iterative deepening principal variation search
+ * with a transposition table, null move pruning, late move reductions
+ * and quiescence search.
+ *
+ * One Search is driven by one thread. It works on its own copies of the
+ * position, so the caller's Position (and the scene) is never touched.
+ * Several Searches sharing a table make a Lazy SMP team, see Engine.
+ */
+public class Search
+{
+	public static final int MAX_PLY = 128;
+	public static final int INF = 32000,
+			MATE = 31000,
+			// scores beyond this are mates in at most MAX_PLY
+			MATE_BOUND = MATE - MAX_PLY;
+	// Bitbase wins score above any material balance, below mates
+	public static final int KNOWN_WIN = 20000;
+
+	// Piece values in centipawns, indexed by piece type
+	public static final int VALUES[] = {0, 100, 320, 330, 500, 900, 0};
+
+	private final TranspositionTable tt;
+	private final TranspositionTable.Stats ttStats;
+	// Owned by this thread alone
+	private final PawnHashTable pawnHash = new PawnHashTable(PawnHashTable.DEFAULT_KB);
+	// Endgame bitbases, null if none
+	private Bitbase bitbase;
+
+	// Make/unmake on one position, one move list and move scores per ply
+	private final Position pos = new Position();
+	private final MoveList lists[] = new MoveList[MAX_PLY];
+	private final int moveScores[][] = new int[MAX_PLY][MoveList.MAX_MOVES];
+
+	// Triangular principal variation table
+	private final int pv[][] = new int[MAX_PLY][MAX_PLY];
+	private final int pvLength[] = new int[MAX_PLY];
+
+	// Move ordering heuristics
+	private final int killers[][] = new int[MAX_PLY][2];
+	private final int history[][] = new int[SIDE_N][SQ_N * SQ_N];
+
+	private volatile boolean stopped;
+	private long nodes;
+	private long nodeLimit;
+	// System.nanoTime(), 0 if none. Set by another thread on a ponder hit
+	private volatile long deadline;
+
+	// Iterative deepening state, kept between step() calls
+	private SearchLimits limits;
+	private long startTime;
+	// Where the time limit counts from: the start, or the ponder hit
+	private volatile long clockStart;
+	// Searching the expected reply with no time limit, until ponderHit()
+	private volatile boolean pondering;
+	private boolean ponderHit;
+	private int depth;
+	// Node count where the current step() must yield, 0 if none
+	private long yieldNodes;
+	private boolean yielded;
+	// Steps in a row cut before finishing a root move, see step()
+	private int stalls;
+
+	// Root move loop of the current iteration, kept between step() calls.
+	// rootIndex is 0 between iterations, the moves are ordered in lists[0]
+	private int rootIndex;
+	private int rootCount;
+	private int rootAlpha;
+	private boolean rootInCheck;
+
+	// Result of the last completed iteration
+	private final int rootPv[] = new int[MAX_PLY];
+	private int rootPvLength;
+	private int bestScore;
+
+	// Lazy SMP: helper threads skip some depths so that the team
+	// spreads over different depths. 0 is the main thread
+	private int threadId;
+	// All searches of the team, for node counts
+	private Search team[] = {this};
+
+	// Depth skipping pattern of the helpers, cycled by thread id
+	private static final int SKIP_SIZE[] = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+	private static final int SKIP_PHASE[] = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
+
+	public Search(TranspositionTable tt)
+	{
+		this.tt = tt;
+		this.ttStats = tt.newStats();
+		for (int i = 0; i < MAX_PLY; i++)
+			lists[i] = new MoveList();
+	}
+
+	/**
+	 * Aborts the search as soon as possible, from any thread
+	 */
+	public void stop() {	this.stopped = true;	}
+
+	/**
+	 * Clears the stop flag. Called by the owner before a new think()
+	 */
+	public synchronized void reset()
+	{
+		this.stopped = false;
+		this.ponderHit = false;
+	}
+
+	/**
+	 * The expected reply was played: the pondering search goes on as
+	 * a normal one, its time limit counting from now. From any thread,
+	 * also before think() begins
+	 */
+	public synchronized void ponderHit()
+	{
+		ponderHit = true;
+		if (pondering)
+			startClock(System.nanoTime());
+	}
+
+	public boolean isPondering() {	return this.pondering;	}
+
+	private void startClock(long now)
+	{
+		clockStart = now;
+		deadline = limits.moveTime > 0 ? now + limits.moveTime * 1000000 : 0;
+		pondering = false;
+	}
+
+	public boolean isStopped() {	return this.stopped;	}
+
+	public long getNodes() {	return this.nodes;	}
+
+	public TranspositionTable.Stats getTTStats() {	return this.ttStats;	}
+
+	public PawnHashTable getPawnHash() {	return this.pawnHash;	}
+
+	/**
+	 * @param bitbase null to search 3-piece endings like any other
+	 */
+	public void setBitbase(Bitbase bitbase) {	this.bitbase = bitbase;	}
+
+	/**
+	 * Joins a Lazy SMP team
+	 * @param threadId 0 for the main thread, which alone reports and decides
+	 * @param team all the team's searches, sharing one table
+	 */
+	public void setTeam(int threadId, Search team[])
+	{
+		this.threadId = threadId;
+		this.team = team;
+	}
+
+	/**
+	 * Nodes of the whole team. Read racily, good enough for reporting
+	 */
+	public long getTeamNodes()
+	{
+		long total = 0;
+		for (Search s : team)
+			total += s.nodes;
+		return total;
+	}
+
+	/**
+	 * Should this helper skip the depth? The main thread never skips
+	 */
+	private boolean skipDepth(int depth)
+	{
+		if (threadId == 0)	return false;
+		int i = (threadId - 1) % SKIP_SIZE.length;
+		return ((depth + SKIP_PHASE[i]) / SKIP_SIZE[i]) % 2 != 0;
+	}
+
+	/**
+	 * Iterative deepening from the root position, reporting each iteration.
+	 * @param listener gets onInfo() only, the caller reports the best move
+	 * @return best move, Move.NULL if there's no legal move
+	 */
+	public int think(Position root, SearchLimits limits, SearchListener listener)
+	{
+		begin(root, limits);
+		while (!step(0, listener)) {}
+
+		// Infinite mode: the result is only wanted after stop().
+		// Pondering: after stop() or the ponder hit
+		while ((limits.infinite || pondering) && !stopped)
+			sleep(1);
+
+		return getBestMove();
+	}
+
+	/**
+	 * Starts a search to be run by step(), on the caller's thread
+	 */
+	public void begin(Position root, SearchLimits limits)
+	{
+		this.limits = limits;
+		this.startTime = System.nanoTime();
+		this.nodes = 0;
+		this.nodeLimit = limits.nodes;
+		synchronized (this)
+		{
+			if (limits.ponder && !ponderHit)
+			{
+				pondering = true;
+				deadline = 0;
+			}
+			else
+				startClock(startTime);
+		}
+		this.depth = 1;
+		this.rootIndex = 0;
+		this.stalls = 0;
+		pos.copyFrom(root);
+		for (int ply = 0; ply < MAX_PLY; ply++)
+			killers[ply][0] = killers[ply][1] = Move.NULL;
+		for (int side = W; side < SIDE_N; side++)
+			for (int i = 0; i < SQ_N * SQ_N; i++)
+				history[side][i] >>= 2;
+
+		// Always have a legal move to play, even if stopped right away
+		rootPvLength = 0;
+		if (MoveGen.generate(pos, lists[0]) > 0)
+		{
+			rootPv[0] = lists[0].moves[0];
+			rootPvLength = 1;
+		}
+	}
+
+	/**
+	 * Runs iterations of the search started by begin(), within a node budget.
+	 * An iteration cut by the budget goes on with the next step(), from the
+	 * root move that was cut: only that move's subtree is searched again,
+	 * the table and the move ordering keep most of its work.
+	 * A step that couldn't finish a single root move gets a larger budget
+	 * next time, so the search always gets deeper.
+	 * @param budget nodes to search before yielding, 0 for no budget
+	 * @param listener gets onInfo() after each completed iteration
+	 * @return true when the search is over, false if it yielded
+	 */
+	public boolean step(long budget, SearchListener listener)
+	{
+		yieldNodes = budget > 0 ? nodes + budget * (stalls + 1) : 0;
+		int startDepth = depth, startIndex = rootIndex;
+		for (; depth <= limits.depth && rootPvLength > 0; depth++)
+		{
+			if (skipDepth(depth))	continue;
+			int score = searchRoot(depth);
+			if (yielded)
+			{
+				yielded = stopped = false;
+				stalls = depth == startDepth && rootIndex == startIndex ? stalls + 1 : 0;
+				return false;
+			}
+			// The moves searched so far already updated the best move
+			if (stopped)	return true;
+
+			bestScore = score;
+			long millis = (System.nanoTime() - startTime) / 1000000;
+			listener.onInfo(depth, score, getTeamNodes(), millis, rootPv, rootPvLength);
+
+			if (pondering)	continue;
+			// Not enough time left to finish another iteration
+			long used = (System.nanoTime() - clockStart) / 1000000;
+			if (limits.moveTime > 0 && used * 2 > limits.moveTime)
+				return true;
+			// No point searching deeper once a forced mate is found
+			if (!limits.infinite && isMate(score) && MATE - Math.abs(score) <= depth)
+				return true;
+		}
+		return true;
+	}
+
+	/**
+	 * Best move so far: of the last completed iteration, or a better one
+	 * found by the current iteration. Move.NULL if there's no legal move
+	 */
+	public int getBestMove() {	return rootPvLength > 0 ? rootPv[0] : Move.NULL;	}
+
+	public int getBestScore() {	return this.bestScore;	}
+
+	/**
+	 * Expected reply to the best move, Move.NULL if unknown
+	 */
+	public int getPonderMove() {	return rootPvLength > 1 ? rootPv[1] : Move.NULL;	}
+
+	/**
+	 * Is the score a forced mate, for either side?
+	 */
+	public static boolean isMate(int score) {	return Math.abs(score) >= MATE_BOUND;	}
+
+	private void checkLimits()
+	{
+		if ((deadline != 0 && System.nanoTime() > deadline)
+				|| (nodeLimit != 0 && nodes >= nodeLimit))
+			stopped = true;
+		// Unwinds like a stop, but step() clears it
+		else if (yieldNodes != 0 && nodes >= yieldNodes)
+			yielded = stopped = true;
+	}
+
+
+	/******************** Alpha-beta ********************/
+	/**
+	 * The root node of an iteration, resumable: the state of its move loop
+	 * survives a yield, and the next call goes on from the move that was cut.
+	 * Each move that raises alpha becomes the best move so far
+	 */
+	private int searchRoot(int depth)
+	{
+		if (rootIndex == 0)
+		{
+			// New iteration: generate and score the moves once
+			pvLength[0] = 0;
+			++ nodes;
+			long data = tt.probe(pos.getKey(), ttStats);
+			rootCount = MoveGen.generate(pos, lists[0]);
+			scoreMoves(pos, 0, data != 0 ? move(data) : Move.NULL);
+			rootAlpha = -INF;
+			rootInCheck = pos.inCheck();
+		}
+		// Check extension, as in search()
+		if (rootInCheck)	++ depth;
+
+		for (; rootIndex < rootCount; rootIndex++)
+		{
+			int i = rootIndex;
+			// Already in place if this move was cut in the last step
+			int move = pickMove(0, i);
+			boolean quiet = isQuiet(pos, move);
+			pos.makeMove(move);
+
+			int score;
+			if (i == 0)
+				score = -search(1, depth - 1, -INF, -rootAlpha);
+			else
+			{
+				int r = 0;
+				if (depth >= 3 && i >= 3 && quiet && !rootInCheck && !pos.inCheck())
+					r = i >= 8 ? 2 : 1;
+				score = -search(1, depth - 1 - r, -rootAlpha - 1, -rootAlpha);
+				if (score > rootAlpha)
+					score = -search(1, depth - 1, -INF, -rootAlpha);
+			}
+			pos.unmakeMove();
+			if (stopped)	return 0;
+
+			if (score > rootAlpha)
+			{
+				rootAlpha = score;
+				updatePv(0, move);
+				rootPvLength = pvLength[0];
+				System.arraycopy(pv[0], 0, rootPv, 0, rootPvLength);
+			}
+		}
+
+		rootIndex = 0;
+		tt.store(pos.getKey(), rootPv[0], scoreToTT(rootAlpha, 0), depth, BOUND_EXACT, ttStats);
+		return rootAlpha;
+	}
+
+	private int search(int ply, int depth, int alpha, int beta)
+	{
+		boolean pvNode = beta - alpha > 1;
+		pvLength[ply] = ply;
+		boolean inCheck = pos.inCheck();
+		// Check extension, also keeps quiescence out of check
+		if (inCheck)	++ depth;
+		if (depth <= 0)
+			return quiesce(ply, alpha, beta);
+
+		if ((++ nodes & 1023) == 0)	checkLimits();
+		if (stopped)	return 0;
+		if (ply >= MAX_PLY - 1)	return evaluate(pos);
+		if (ply > 0 && (pos.isFiftyMoves() || pos.isRepetition()))	return 0;
+
+		// Exact result of 3-piece endings. The root still needs a move
+		if (ply > 0 && bitbase != null)
+		{
+			int result = bitbase.probe(pos);
+			if (result == Bitbase.DRAW)
+				return 0;
+			if (result != Bitbase.UNKNOWN)
+			{
+				int score = KNOWN_WIN + knownWinBonus(pos);
+				return result == Bitbase.WIN ? score : -score;
+			}
+		}
+
+		long key = pos.getKey();
+		int ttMove = Move.NULL;
+		long data = tt.probe(key, ttStats);
+		if (data != 0)
+		{
+			ttMove = move(data);
+			if (!pvNode && depth(data) >= depth)
+			{
+				int score = scoreFromTT(score(data), ply);
+				int bound = bound(data);
+				if (bound == BOUND_EXACT
+						|| (bound == BOUND_LOWER && score >= beta)
+						|| (bound == BOUND_UPPER && score <= alpha))
+					return score;
+			}
+		}
+
+		// Null move pruning: if passing still fails high, so will a real move
+		if (!pvNode && !inCheck && ply > 0 && depth >= 3
+				&& hasPieces(pos, pos.getTurn()) && evaluate(pos) >= beta)
+		{
+			pos.makeNullMove();
+			int r = depth > 6 ? 3 : 2;
+			int score = -search(ply + 1, depth - 1 - r, -beta, -beta + 1);
+			pos.unmakeMove();
+			if (stopped)	return 0;
+			if (score >= beta)
+				return isMate(score) ? beta : score;
+		}
+
+		MoveList list = lists[ply];
+		int n = MoveGen.generate(pos, list);
+		if (n == 0) // checkmate or stalemate
+			return inCheck ? -MATE + ply : 0;
+		scoreMoves(pos, ply, ttMove);
+
+		int alphaOrig = alpha;
+		int best = -INF, bestMove = Move.NULL;
+		for (int i = 0; i < n; i++)
+		{
+			int move = pickMove(ply, i);
+			boolean quiet = isQuiet(pos, move);
+			pos.makeMove(move);
+
+			int score;
+			if (i == 0)
+				score = -search(ply + 1, depth - 1, -beta, -alpha);
+			else
+			{
+				// Late move reduction for quiet moves ordered last
+				int r = 0;
+				if (depth >= 3 && i >= 3 && quiet && !inCheck && !pos.inCheck())
+					r = i >= 8 ? 2 : 1;
+				score = -search(ply + 1, depth - 1 - r, -alpha - 1, -alpha);
+				if (score > alpha && (r > 0 || score < beta))
+					score = -search(ply + 1, depth - 1, -beta, -alpha);
+			}
+			pos.unmakeMove();
+			if (stopped)	return 0;
+
+			if (score > best)
+			{
+				best = score;
+				bestMove = move;
+				if (score > alpha)
+				{
+					alpha = score;
+					updatePv(ply, move);
+					if (score >= beta)
+					{
+						if (quiet)
+							updateQuietHeuristics(pos, ply, move, depth);
+						break;
+					}
+				}
+			}
+		}
+
+		int bound = best >= beta ? BOUND_LOWER :
+					best > alphaOrig ? BOUND_EXACT : BOUND_UPPER;
+		tt.store(key, bestMove, scoreToTT(best, ply), depth, bound, ttStats);
+		return best;
+	}
+
+	/**
+	 * Captures only, until the position is quiet
+	 */
+	private int quiesce(int ply, int alpha, int beta)
+	{
+		pvLength[ply] = ply;
+		if ((++ nodes & 1023) == 0)	checkLimits();
+		if (stopped)	return 0;
+
+		if (ply >= MAX_PLY - 1)	return evaluate(pos);
+
+		MoveList list = lists[ply];
+		int best;
+		int n;
+		if (pos.inCheck())
+		{
+			// No standing pat in check, try every evasion
+			n = MoveGen.generate(pos, list);
+			if (n == 0)
+				return -MATE + ply;
+			best = -INF;
+		}
+		else
+		{
+			// Stand pat: the side to move doesn't have to capture
+			best = evaluate(pos);
+			if (best >= beta)
+				return best;
+			n = MoveGen.generateCaptures(pos, list);
+		}
+		if (best > alpha)	alpha = best;
+
+		scoreMoves(pos, ply, Move.NULL);
+		for (int i = 0; i < n; i++)
+		{
+			int move = pickMove(ply, i);
+			pos.makeMove(move);
+			int score = -quiesce(ply + 1, -beta, -alpha);
+			pos.unmakeMove();
+			if (stopped)	return 0;
+
+			if (score > best)
+			{
+				best = score;
+				if (score > alpha)
+				{
+					alpha = score;
+					updatePv(ply, move);
+					if (score >= beta)
+						break;
+				}
+			}
+		}
+		return best;
+	}
+
+
+	/******************** Evaluation ********************/
+	/**
+	 * Tapered material, piece-square and pawn score from the side to move.
+	 * Position keeps the piece sums up to date (see Eval), and the pawn terms
+	 * nearly always come from the pawn hash table.
+	 */
+	private int evaluate(Position pos)
+	{
+		int e = pawnHash.probe(pos);
+		int mg = pawnHash.mg(e);
+		for (int side = W; side < SIDE_N; side++)
+			if (Eval.kingAtHome(pos, side))
+			{
+				int shelter = pawnHash.shelter(e, side, Eval.wing(file(pos.kingSq(side))));
+				mg += side == W ? -shelter : shelter;
+			}
+		return Eval.evaluate(pos, mg, pawnHash.eg(e));
+	}
+
+	/**
+	 * Guides a known win towards mate: more material, the pawn further up,
+	 * the lone king to the edge and the kings close together
+	 */
+	private static int knownWinBonus(Position pos)
+	{
+		int strong = popCount(pos.occupancy(W)) > 1 ? W : B;
+		int sk = pos.kingSq(strong), wk = pos.kingSq(strong ^ 1);
+		int bonus = Eval.evaluate(pos) * (pos.getTurn() == strong ? 1 : -1);
+		long pawns = pos.pieces(strong, PAWN);
+		if (pawns != 0)
+			bonus += 20 * (strong == W ? rank(lsb(pawns)) : 7 - rank(lsb(pawns)));
+		int edge = Math.max(Math.abs(2 * file(wk) - 7), Math.abs(2 * rank(wk) - 7));
+		int kings = Math.max(Math.abs(file(sk) - file(wk)), Math.abs(rank(sk) - rank(wk)));
+		return bonus + 10 * edge - 10 * kings;
+	}
+
+	/**
+	 * Anything besides king and pawns? Null move is unsafe in zugzwang
+	 */
+	private static boolean hasPieces(Position pos, int side)
+	{
+		return (pos.occupancy(side) & ~pos.pieces(side, PAWN) & ~pos.pieces(side, KING)) != 0;
+	}
+
+
+	/******************** Move ordering ********************/
+	private static boolean isQuiet(Position pos, int move)
+	{
+		return pos.isEmpty(Move.to(move)) && Move.flag(move) == Move.NORMAL
+				|| Move.flag(move) == Move.CASTLE;
+	}
+
+	/**
+	 * Hash move first, then captures by MVV-LVA, killers, and history
+	 */
+	private void scoreMoves(Position pos, int ply, int ttMove)
+	{
+		MoveList list = lists[ply];
+		int scores[] = moveScores[ply];
+		int side = pos.getTurn();
+		for (int i = 0; i < list.size; i++)
+		{
+			int move = list.moves[i];
+			int from = Move.from(move), to = Move.to(move);
+			int captured = Move.flag(move) == Move.EN_PASSANT ? PAWN : pos.getPiece(to);
+			if (move == ttMove)
+				scores[i] = 1 << 30;
+			else if (captured != NON || Move.flag(move) == Move.PROMOTION)
+				scores[i] = (1 << 28) + VALUES[captured] * 16
+							+ VALUES[Move.promo(move)] - pos.getPiece(from);
+			else if (move == killers[ply][0])
+				scores[i] = (1 << 27) + 1;
+			else if (move == killers[ply][1])
+				scores[i] = 1 << 27;
+			else
+				scores[i] = history[side][from << 6 | to];
+		}
+	}
+
+	/**
+	 * Selection sort step: brings the best remaining move to index i
+	 */
+	private int pickMove(int ply, int i)
+	{
+		int moves[] = lists[ply].moves;
+		int scores[] = moveScores[ply];
+		int best = i;
+		for (int j = i + 1; j < lists[ply].size; j++)
+			if (scores[j] > scores[best])
+				best = j;
+		int move = moves[best];
+		moves[best] = moves[i];	moves[i] = move;
+		int score = scores[best];
+		scores[best] = scores[i];	scores[i] = score;
+		return move;
+	}
+
+	private void updateQuietHeuristics(Position pos, int ply, int move, int depth)
+	{
+		if (killers[ply][0] != move)
+		{
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = move;
+		}
+		int h = Move.from(move) << 6 | Move.to(move);
+		int side = pos.getTurn();
+		history[side][h] = Math.min(history[side][h] + depth * depth, 1 << 26);
+	}
+
+	private void updatePv(int ply, int move)
+	{
+		pv[ply][ply] = move;
+		int len = pvLength[ply + 1];
+		System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, len - ply - 1);
+		pvLength[ply] = Math.max(len, ply + 1);
+	}
+
+
+	/******************** Mate scores in the TT ********************/
+	// Stored relative to the node, not the root, so they stay valid elsewhere
+	private static int scoreToTT(int score, int ply)
+	{
+		return score >= MATE_BOUND ? score + ply :
+				score <= -MATE_BOUND ? score - ply : score;
+	}
+
+	private static int scoreFromTT(int score, int ply)
+	{
+		return score >= MATE_BOUND ? score - ply :
+				score <= -MATE_BOUND ? score + ply : score;
+	}
+
+	private static void sleep(long millis)
+	{
+		try {	Thread.sleep(millis);	}
+		catch (InterruptedException e) {	Thread.currentThread().interrupt();	}
+	}
+}
@@ -0,0 +1,51 @@
+package excalibur;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * When should a search stop? Any limit left at 0 is ignored.
+ */
+public class SearchLimits
+{
+	// Maximum iterative deepening depth
+	public int depth = Search.MAX_PLY - 1;
+	// Time for this move in milliseconds
+	public long moveTime;
+	// Node budget
+	public long nodes;
+	// Search until stop() even after reaching the maximum depth
+	public boolean infinite;
+	// Search the position after the expected reply, on the opponent's time:
+	// no time limit until Engine.ponderHit(), then the usual ones
+	public boolean ponder;
+
+	public static SearchLimits depth(int depth)
+	{
+		SearchLimits limits = new SearchLimits();
+		limits.depth = depth;
+		return limits;
+	}
+
+	public static SearchLimits moveTime(long millis)
+	{
+		SearchLimits limits = new SearchLimits();
+		limits.moveTime = millis;
+		return limits;
+	}
+
+	/**
+	 * Pondering, with the move time that applies after the ponder hit
+	 */
+	public static SearchLimits ponder(long millis)
+	{
+		SearchLimits limits = moveTime(millis);
+		limits.ponder = true;
+		return limits;
+	}
+
+	public static SearchLimits infinite()
+	{
+		SearchLimits limits = new SearchLimits();
+		limits.infinite = true;
+		return limits;
+	}
+}
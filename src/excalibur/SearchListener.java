@@ -0,0 +1,24 @@
+package excalibur;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Receives the progress and the result of a search.
+ * Called on the search thread: implementations must not touch the scene,
+ * hand the data over to the render thread instead.
+ */
+public interface SearchListener
+{
+	/**
+	 * After each completed iteration.
+	 * pv is only valid during the call, copy it to keep it.
+	 * @param score centipawns from the side to move, see Search.isMate()
+	 */
+	void onInfo(int depth, int score, long nodes, long millis, int pv[], int pvLength);
+
+	/**
+	 * The search is over
+	 * @param move Move.NULL if there's no legal move
+	 * @param ponderMove expected reply, Move.NULL if unknown
+	 */
+	void onBestMove(int move, int ponderMove);
+}
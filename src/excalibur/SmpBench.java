@@ -0,0 +1,101 @@
+package excalibur;
+
+import java.util.concurrent.CountDownLatch;
+
+import chess.Move;
+import chess.Position;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Lazy SMP scaling benchmark (headless).
+ * Searches a fixed position set to a fixed depth with 1, 2, 4, ... N threads
+ * and reports nodes per second and time to depth.
+ *
+ * java -cp bin excalibur.SmpBench [depth] [maxThreads] [hashMb]
+ */
+public class SmpBench
+{
+	private static final String POSITIONS[] = {
+		Position.FEN_START,
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+		"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+		"r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 4 4",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+	};
+
+	/**
+	 * Waits for onBestMove()
+	 */
+	private static class Result implements SearchListener
+	{
+		final CountDownLatch done = new CountDownLatch(1);
+		int move;
+
+		@Override
+		public void onInfo(int depth, int score, long nodes, long millis, int[] pv, int pvLength) {}
+
+		@Override
+		public void onBestMove(int move, int ponderMove)
+		{
+			this.move = move;
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Searches all positions from an empty table
+	 * @return {nodes, nanos}
+	 */
+	private static long[] run(Engine engine, int depth, boolean verbose) throws InterruptedException
+	{
+		long nodes = 0, nanos = 0;
+		for (String fen : POSITIONS)
+		{
+			engine.getTT().clear();
+			Result result = new Result();
+			long start = System.nanoTime();
+			engine.go(new Position(fen), SearchLimits.depth(depth), result);
+			result.done.await();
+			long elapsed = System.nanoTime() - start;
+			nodes += engine.getNodes();
+			nanos += elapsed;
+			if (verbose)
+				System.out.printf("   %-6s %,14d nodes  %6d ms%n",
+						Move.toString(result.move), engine.getNodes(), elapsed / 1000000);
+		}
+		return new long[] {nodes, nanos};
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+		int hashMb = args.length > 2 ? Integer.parseInt(args[2]) : Engine.DEFAULT_HASH_MB;
+
+		Engine engine = new Engine(hashMb, 1);
+		// warm up the JIT before timing
+		run(engine, Math.min(depth, 6), false);
+
+		long baseNanos = 0, baseNps = 0;
+		for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads))
+		{
+			engine.setThreads(threads);
+			System.out.printf("%d thread(s), depth %d:%n", threads, depth);
+			long r[] = run(engine, depth, true);
+			long nps = r[0] * 1000000000L / Math.max(r[1], 1);
+			if (threads == 1)
+			{
+				baseNanos = r[1];
+				baseNps = nps;
+			}
+			System.out.printf("Total: %,d nodes  %d ms  %,d nps  (nps x%.2f, time to depth x%.2f)%n",
+					r[0], r[1] / 1000000, nps,
+					(double) nps / Math.max(baseNps, 1), (double) baseNanos / Math.max(r[1], 1));
+			System.out.println(engine.getStats() + "\n");
+			if (threads >= maxThreads)	break;
+		}
+		engine.shutdown();
+	}
+}
@@ -0,0 +1,296 @@
+package excalibur;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Transposition table for the Excalibur search, shared by all search threads.
+ *
+ * Lives off-heap in direct ByteBuffers, so even several GB don't touch the GC.
+ * Tables beyond the heap size need -XX:MaxDirectMemorySize to be raised.
+ * A 16-byte entry is two longs: (key ^ data, data).
+ * No locks: a reader recomputes key ^ data and throws the entry away if
+ * it doesn't match, which also catches entries torn by concurrent writers.
+ *
+ * 4 entries make a 64-byte bucket, one cache line.
+ * data layout: move 0-16 | score 17-32 | depth 33-40 | bound 41-42 | age 43-48
+ */
+public class TranspositionTable
+{
+	// Bound types. Never 0, so that stored data is never 0
+	public static final int BOUND_UPPER = 1, // fail low, score <= alpha
+			BOUND_LOWER = 2, // fail high, score >= beta
+			BOUND_EXACT = 3;
+
+	private static final int ENTRY_BYTES = 16, BUCKET_ENTRIES = 4,
+			BUCKET_BYTES = ENTRY_BYTES * BUCKET_ENTRIES;
+	// One ByteBuffer can't exceed 2 GB, so the table is split into 1 GB chunks
+	private static final int CHUNK_SHIFT = 30 - 6; // buckets per chunk, log2
+	private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+	private static final int AGE_N = 64;
+
+	private ByteBuffer chunks[];
+	private long bucketMask;
+	private int megabytes;
+	// Incremented at each new search, so that old entries get replaced first
+	private int age;
+
+	// Per-thread counters, see Stats
+	private final List<Stats> allStats = new ArrayList<Stats>();
+
+	/**
+	 * Counters owned by a single search thread,
+	 * so that threads never contend on a shared cache line
+	 */
+	public static class Stats
+	{
+		public long probes, hits, stores, collisions;
+
+		void clear() {	probes = hits = stores = collisions = 0;	}
+	}
+
+	/**
+	 * @param megabytes size, rounded down to a power of 2 buckets
+	 */
+	public TranspositionTable(int megabytes)
+	{
+		resize(megabytes);
+	}
+
+	/**
+	 * Reallocates the table. All entries are lost.
+	 * Must not be called while a search is running.
+	 */
+	public void resize(int megabytes)
+	{
+		long buckets = Long.highestOneBit(Math.max(((long) megabytes << 20) / BUCKET_BYTES, 1));
+		this.bucketMask = buckets - 1;
+		this.megabytes = megabytes;
+
+		long perChunk = 1L << CHUNK_SHIFT;
+		int chunkN = (int) ((buckets + perChunk - 1) / perChunk);
+		this.chunks = null; // let the old buffers go before allocating
+		ByteBuffer newChunks[] = new ByteBuffer[chunkN];
+		for (int i = 0; i < chunkN; i++)
+			newChunks[i] = ByteBuffer
+					.allocateDirect((int) (Math.min(buckets, perChunk) * BUCKET_BYTES))
+					.order(ByteOrder.nativeOrder());
+		this.chunks = newChunks;
+	}
+
+	public int getMegabytes() {	return this.megabytes;	}
+
+	/**
+	 * Zero out all entries and counters
+	 */
+	public void clear()
+	{
+		for (ByteBuffer chunk : chunks)
+			for (int i = 0; i < chunk.capacity(); i += 8)
+				chunk.putLong(i, 0);
+		synchronized (allStats)
+		{
+			for (Stats s : allStats)
+				s.clear();
+		}
+		age = 0;
+	}
+
+	/**
+	 * Call at the start of every search
+	 */
+	public void newSearch() {	age = (age + 1) & (AGE_N - 1);	}
+
+	/**
+	 * Counters for a new search thread, included in the table's statistics
+	 */
+	public Stats newStats()
+	{
+		Stats s = new Stats();
+		synchronized (allStats) {	allStats.add(s);	}
+		return s;
+	}
+
+	/**
+	 * Stop counting a finished search thread
+	 */
+	public void removeStats(Stats s)
+	{
+		synchronized (allStats) {	allStats.remove(s);	}
+	}
+
+
+	/******************** Probe and store ********************/
+	/**
+	 * @return packed data of the entry for this key, 0 on a miss.
+	 * Decode with move(), score(), depth(), bound()
+	 */
+	public long probe(long key, Stats stats)
+	{
+		++ stats.probes;
+		long bucket = key & bucketMask;
+		ByteBuffer chunk = chunks[(int) (bucket >>> CHUNK_SHIFT)];
+		int base = (int) (bucket & CHUNK_MASK) * BUCKET_BYTES;
+
+		for (int i = 0; i < BUCKET_ENTRIES; i++)
+		{
+			int off = base + i * ENTRY_BYTES;
+			long data = chunk.getLong(off + 8);
+			if ((chunk.getLong(off) ^ data) == key && data != 0)
+			{
+				++ stats.hits;
+				return data;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Replaces the entry of the same key if present, else an empty entry,
+	 * else the one with the lowest depth, entries from older searches first.
+	 */
+	public void store(long key, int move, int score, int depth, int bound, Stats stats)
+	{
+		++ stats.stores;
+		long bucket = key & bucketMask;
+		ByteBuffer chunk = chunks[(int) (bucket >>> CHUNK_SHIFT)];
+		int base = (int) (bucket & CHUNK_MASK) * BUCKET_BYTES;
+
+		int replace = base;
+		int worst = Integer.MAX_VALUE;
+		boolean sameKey = false;
+		for (int i = 0; i < BUCKET_ENTRIES; i++)
+		{
+			int off = base + i * ENTRY_BYTES;
+			long data = chunk.getLong(off + 8);
+			if (data == 0 || (chunk.getLong(off) ^ data) == key)
+			{
+				replace = off;
+				sameKey = data != 0;
+				// keep the old best move if we have none
+				if (sameKey && move == 0)
+					move = move(data);
+				break;
+			}
+			// 8 plies of depth per search of age
+			int value = depth(data) - 8 * ((age - age(data)) & (AGE_N - 1));
+			if (value < worst)
+			{
+				worst = value;
+				replace = off;
+			}
+		}
+
+		// A live entry of another position gets evicted
+		if (!sameKey && chunk.getLong(replace + 8) != 0)
+			++ stats.collisions;
+
+		long data = pack(move, score, depth, bound, age);
+		chunk.putLong(replace, key ^ data);
+		chunk.putLong(replace + 8, data);
+	}
+
+
+	/******************** Entry data ********************/
+	static long pack(int move, int score, int depth, int bound, int age)
+	{
+		return (move & 0x1FFFFL)
+				| (score & 0xFFFFL) << 17
+				| (long) (depth & 0xFF) << 33
+				| (long) bound << 41
+				| (long) age << 43;
+	}
+
+	public static int move(long data) {	return (int) (data & 0x1FFFF);	}
+
+	public static int score(long data) {	return (short) (data >>> 17);	}
+
+	public static int depth(long data) {	return (int) (data >>> 33) & 0xFF;	}
+
+	public static int bound(long data) {	return (int) (data >>> 41) & 3;	}
+
+	static int age(long data) {	return (int) (data >>> 43) & (AGE_N - 1);	}
+
+
+	/******************** Statistics ********************/
+	/**
+	 * Fraction of probes that found their position, 0 to 1
+	 */
+	public double hitRate()
+	{
+		long probes = 0, hits = 0;
+		synchronized (allStats)
+		{
+			for (Stats s : allStats)
+			{
+				probes += s.probes;
+				hits += s.hits;
+			}
+		}
+		return probes == 0 ? 0 : (double) hits / probes;
+	}
+
+	/**
+	 * Number of stores that evicted a live entry of another position
+	 */
+	public long collisions()
+	{
+		long collisions = 0;
+		synchronized (allStats)
+		{
+			for (Stats s : allStats)
+				collisions += s.collisions;
+		}
+		return collisions;
+	}
+
+	/**
+	 * Sum of all thread counters
+	 */
+	public Stats totals()
+	{
+		Stats total = new Stats();
+		synchronized (allStats)
+		{
+			for (Stats s : allStats)
+			{
+				total.probes += s.probes;
+				total.hits += s.hits;
+				total.stores += s.stores;
+				total.collisions += s.collisions;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Per mille of entries used by the current search, sampled
+	 * from the first 1000 entries (the UCI "hashfull" figure)
+	 */
+	public int fillRate()
+	{
+		ByteBuffer chunk = chunks[0];
+		int n = Math.min(1000, chunk.capacity() / ENTRY_BYTES);
+		int used = 0;
+		for (int i = 0; i < n; i++)
+		{
+			long data = chunk.getLong(i * ENTRY_BYTES + 8);
+			if (data != 0 && age(data) == age)
+				++ used;
+		}
+		return used * 1000 / Math.max(n, 1);
+	}
+
+	@Override
+	public String toString()
+	{
+		Stats t = totals();
+		return String.format("TT %d MB: hit rate %.1f%%, fill %d permille, "
+				+ "%d probes, %d stores, %d collisions",
+				megabytes, 100 * hitRate(), fillRate(), t.probes, t.stores, t.collisions);
+	}
+}
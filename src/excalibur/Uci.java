@@ -0,0 +1,257 @@
+package excalibur;
+
+import static chess.Position.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import chess.Fen;
+import chess.Move;
+import chess.MoveList;
+import chess.Position;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * UCI front-end: Excalibur on stdin/stdout for chess GUIs and tournament managers.
+ * Headless, knows nothing of Board or jME.
+ *
+ * The main thread only reads commands: searches run on the engine's threads,
+ * so "stop" and "ponderhit" take effect at once. Output goes through a queue
+ * to its own thread, a slow reader never blocks the search.
+ *
+ * java -cp bin excalibur.Uci
+ */
+public class Uci
+{
+	private static final String NAME = "Excalibur", AUTHOR = "Jim Fan";
+	private static final int MAX_HASH_MB = 65536, MAX_THREADS = 256;
+	// Kept for the time lost between the GUI and the engine, in milliseconds
+	private static final long MOVE_OVERHEAD = 30;
+	// Moves to plan for when the GUI doesn't tell
+	private static final int MOVES_TO_GO = 30;
+
+	private final Engine engine;
+	private final Position pos = new Position(FEN_START);
+	private final MoveList list = new MoveList();
+
+	// Lines for stdout, written by the output thread until END
+	private final BlockingQueue<String> output = new LinkedBlockingQueue<String>();
+	private static final String END = new String("end");
+
+	private final SearchListener listener = new SearchListener()
+	{
+		@Override
+		public void onInfo(int depth, int score, long nodes, long millis, int pv[], int pvLength)
+		{
+			StringBuilder sb = new StringBuilder("info depth ").append(depth).append(" score ");
+			if (Search.isMate(score))
+				sb.append("mate ").append(score > 0 ? (Search.MATE - score + 1) / 2
+						: -(Search.MATE + score) / 2);
+			else
+				sb.append("cp ").append(score);
+			sb.append(" nodes ").append(nodes)
+				.append(" nps ").append(nodes * 1000 / Math.max(millis, 1))
+				.append(" time ").append(millis)
+				.append(" hashfull ").append(engine.getTT().fillRate())
+				.append(" pv");
+			for (int i = 0; i < pvLength; i++)
+				sb.append(' ').append(Move.toString(pv[i]));
+			send(sb.toString());
+		}
+
+		@Override
+		public void onBestMove(int move, int ponderMove)
+		{
+			send("bestmove " + Move.toString(move)
+					+ (ponderMove != Move.NULL ? " ponder " + Move.toString(ponderMove) : ""));
+		}
+	};
+
+	public Uci()
+	{
+		this.engine = new Engine(Engine.DEFAULT_HASH_MB, 1);
+	}
+
+	private void send(String line) {	output.add(line);	}
+
+	/**
+	 * Writes queued lines until END
+	 */
+	private Thread startOutput(final PrintStream out)
+	{
+		Thread t = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try {
+					String line;
+					while ((line = output.take()) != END)
+					{
+						out.println(line);
+						// Flush only when the queue is drained
+						if (output.isEmpty())	out.flush();
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				out.flush();
+			}
+		}, "Uci-output");
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Reads commands until "quit" or the end of input
+	 */
+	public void run(BufferedReader in, PrintStream out) throws IOException, InterruptedException
+	{
+		Thread writer = startOutput(out);
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			String args[] = line.trim().split("\\s+");
+			String cmd = args[0];
+			if (cmd.equals("quit"))	break;
+			else if (cmd.equals("uci"))	uci();
+			else if (cmd.equals("isready"))	send("readyok");
+			else if (cmd.equals("setoption"))	setOption(args);
+			else if (cmd.equals("ucinewgame"))	engine.clearHash();
+			else if (cmd.equals("position"))	position(args);
+			else if (cmd.equals("go"))	go(args);
+			else if (cmd.equals("stop"))	engine.stop();
+			else if (cmd.equals("ponderhit"))	engine.ponderHit();
+			else if (!cmd.isEmpty())	send("info string unknown command " + cmd);
+		}
+		engine.shutdown();
+		// Let the last lines out
+		output.add(END);
+		writer.join();
+	}
+
+	private void uci()
+	{
+		send("id name " + NAME);
+		send("id author " + AUTHOR);
+		send("option name Hash type spin default " + Engine.DEFAULT_HASH_MB + " min 1 max " + MAX_HASH_MB);
+		send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+		send("option name Ponder type check default false");
+		send("uciok");
+	}
+
+	/**
+	 * setoption name Hash value 128
+	 */
+	private void setOption(String args[])
+	{
+		String name = null, value = null;
+		for (int i = 1; i < args.length - 1; i++)
+		{
+			if (args[i].equals("name"))	name = args[i + 1];
+			else if (args[i].equals("value"))	value = args[i + 1];
+		}
+		if (name == null)	return;
+		try {
+			if (name.equalsIgnoreCase("Hash") && value != null)
+				engine.setHashMb(clamp(Integer.parseInt(value), 1, MAX_HASH_MB));
+			else if (name.equalsIgnoreCase("Threads") && value != null)
+				engine.setThreads(clamp(Integer.parseInt(value), 1, MAX_THREADS));
+			// Ponder only tells whether the GUI will send "go ponder"
+		}
+		catch (NumberFormatException e) {
+			send("info string bad value " + value);
+		}
+	}
+
+	/**
+	 * position [startpos | fen ...] [moves ...]
+	 */
+	private void position(String args[])
+	{
+		int i = 1;
+		try {
+			if (i < args.length && args[i].equals("startpos"))
+			{
+				Fen.parse(FEN_START, pos);
+				++ i;
+			}
+			else if (i < args.length && args[i].equals("fen"))
+			{
+				StringBuilder fen = new StringBuilder();
+				while (++ i < args.length && !args[i].equals("moves"))
+					fen.append(args[i]).append(' ');
+				Fen.parse(fen, pos);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			send("info string " + e.getMessage());
+			Fen.parse(FEN_START, pos);
+			return;
+		}
+		if (i < args.length && args[i].equals("moves"))
+			while (++ i < args.length)
+			{
+				int move = Move.parse(pos, list, args[i]);
+				if (move == Move.NULL)
+				{
+					send("info string illegal move " + args[i]);
+					return;
+				}
+				pos.makeMove(move);
+			}
+	}
+
+	/**
+	 * go [wtime btime winc binc movestogo movetime depth nodes infinite ponder]
+	 */
+	private void go(String args[])
+	{
+		SearchLimits limits = new SearchLimits();
+		long time[] = new long[SIDE_N], inc[] = new long[SIDE_N];
+		int movesToGo = 0;
+		for (int i = 1; i < args.length; i++)
+		{
+			String a = args[i];
+			if (a.equals("infinite"))	limits.infinite = true;
+			else if (a.equals("ponder"))	limits.ponder = true;
+			else if (i + 1 < args.length)
+			{
+				long v;
+				try {	v = Long.parseLong(args[i + 1]);	}
+				catch (NumberFormatException e) {	continue;	}
+				++ i;
+				if (a.equals("wtime"))	time[W] = v;
+				else if (a.equals("btime"))	time[B] = v;
+				else if (a.equals("winc"))	inc[W] = v;
+				else if (a.equals("binc"))	inc[B] = v;
+				else if (a.equals("movestogo"))	movesToGo = (int) v;
+				else if (a.equals("movetime"))	limits.moveTime = Math.max(v - MOVE_OVERHEAD, 1);
+				else if (a.equals("depth"))	limits.depth = (int) Math.min(v, Search.MAX_PLY - 1);
+				else if (a.equals("nodes"))	limits.nodes = v;
+			}
+		}
+
+		// Clock: an even share of the time left, plus most of the increment
+		int us = pos.getTurn();
+		if (limits.moveTime == 0 && time[us] > 0)
+		{
+			long share = time[us] / (movesToGo > 0 ? movesToGo : MOVES_TO_GO) + inc[us] * 3 / 4;
+			limits.moveTime = Math.max(Math.min(share, time[us] / 2) - MOVE_OVERHEAD, 1);
+		}
+		engine.go(pos, limits, listener);
+	}
+
+	private static int clamp(int v, int min, int max) {	return Math.max(min, Math.min(v, max));	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		new Uci().run(new BufferedReader(new InputStreamReader(System.in)), System.out);
+	}
+}
@@ -1,5 +1,10 @@
 package utils;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import com.jme3.asset.AssetManager;
 import com.jme3.asset.AssetNotFoundException;
 import com.jme3.material.Material;
@@ -15,6 +20,11 @@ import static com.jme3.math.ColorRGBA.*;
  * @author Jim Fan  (c) 2014
  * Providing my own GLSL shaders and J3ME material definition. 
  * The transparent materials are made in photoshop. 
+ * 
+ * Materials are cached by their parameters: asking twice gives the same 
+ * shared instance, so clone before changing one (the quads do). 
+ * Transparent and wireframe variants are cached along with them, and the 
+ * dissolving pieces get their materials from a pool. Render thread only.
  */
 public class MaterialFactory
 {
@@ -22,6 +32,18 @@ public class MaterialFactory
 	// singleton instance
 	private static MaterialFactory instance = null;
 	
+	// Materials by their parameters, see cached()
+	private final Map<String, Material> cache = new HashMap<String, Material>();
+	// Variants of a material, and the material of a wireframe variant
+	private final Map<Material, Material> transparent = new IdentityHashMap<Material, Material>();
+	private final Map<Material, Material> wireframe = new IdentityHashMap<Material, Material>();
+	private final Map<Material, Material> solid = new IdentityHashMap<Material, Material>();
+	// Copies of a transparent variant, free for dissolving pieces
+	private final Map<Material, ArrayDeque<Material>> transparentPool = 
+			new IdentityHashMap<Material, ArrayDeque<Material>>();
+	// What each material in use by a dissolving piece was copied from
+	private final Map<Material, Material> pooledFrom = new IdentityHashMap<Material, Material>();
+	
 	private MaterialFactory(AssetManager assetManager)
 	{
 		this.assetManager = assetManager;
@@ -52,10 +74,24 @@ public class MaterialFactory
 	/* Custom color repository */
 	public static ColorRGBA NavyPurple = Util.color(45, 0, 65);
 	
+	/**
+	 * The material cached under key, null if none yet
+	 */
+	private Material cached(String key) {	return cache.get(key);	}
+	
+	private Material cache(String key, Material mat)
+	{
+		cache.put(key, mat);
+		return mat;
+	}
+	
 	/* Texture Repository */
 	public Material loadPlain(String texture, ColorRGBA color)
 	{
-		Material mat = new Material(assetManager, PLAIN_SHADER);
+		String key = "Plain " + texture + " " + color;
+		Material mat = cached(key);
+		if (mat != null)	return mat;
+		mat = cache(key, new Material(assetManager, PLAIN_SHADER));
         mat.setColor("Color", color);
         if (texture != null)
             mat.setTexture("ColorMap",
@@ -75,9 +111,12 @@ public class MaterialFactory
 	 */
 	public Material loadHW(ColorRGBA color, int mode, float shine)
 	{
-		Material mat = new Material(assetManager, 
+		String key = "HW " + color + " " + mode + " " + shine;
+		Material mat = cached(key);
+		if (mat != null)	return mat;
+		mat = cache(key, new Material(assetManager, 
 				mode == 1 ? GOURAUD_SHADER :
-								BLINN_PHONG_SHADER);
+								BLINN_PHONG_SHADER));
 		mat.setColor("Diffuse", color);
 		mat.setColor("Ambient", DarkGray);
 		mat.setColor("Specular", White);
@@ -90,17 +129,34 @@ public class MaterialFactory
 	 */
 	public Material loadHW(ColorRGBA c1, ColorRGBA c2, int density)
 	{
-		Material mat = new Material(assetManager, CHECKER_SHADER);
+		String key = "Checker " + c1 + " " + c2 + " " + density;
+		Material mat = cached(key);
+		if (mat != null)	return mat;
+		mat = cache(key, new Material(assetManager, CHECKER_SHADER));
 		mat.setColor("Color1", c1);
 		mat.setColor("Color2", c2);
 		mat.setInt("Density", density);
 		return mat;
 	}
 	
-	public void toggleWireFrame(Material mat)
+	/**
+	 * The wireframe variant of a material, or back from it. 
+	 * Both are cached, the material itself is left alone
+	 */
+	public Material toggleWireFrame(Material mat)
 	{
-		mat.getAdditionalRenderState().setWireframe(
-				!mat.getAdditionalRenderState().isWireframe());
+		Material base = solid.get(mat);
+		if (base != null)	return base;
+		Material wire = wireframe.get(mat);
+		if (wire == null)
+		{
+			wire = mat.clone();
+			wire.getAdditionalRenderState().setWireframe(
+					!mat.getAdditionalRenderState().isWireframe());
+			wireframe.put(mat, wire);
+			solid.put(wire, mat);
+		}
+		return wire;
 	}
 	
 	/**
@@ -112,7 +168,11 @@ public class MaterialFactory
 			ColorRGBA diffuse, ColorRGBA ambient, ColorRGBA specular, 
 			float shininess)
 	{
-		Material mat = new Material(assetManager, PHONG_SHADER);
+		String key = "Phong " + textureFile + " " + diffuse + " " + ambient + " " 
+				+ specular + " " + shininess;
+		Material mat = cached(key);
+		if (mat != null)	return mat;
+		mat = cache(key, new Material(assetManager, PHONG_SHADER));
 		mat.setBoolean("UseMaterialColors", true);
     	mat.setTexture("DiffuseMap", 
     			assetManager.loadTexture("Textures/" + textureFile + ".jpg"));
@@ -175,16 +235,51 @@ public class MaterialFactory
     }
     
     /**
-     * We set this Geometry object's material to transparent
+     * The transparent variant of a material, made and cached on first use. 
+     * Without its alpha map, a plain copy: the missing file isn't looked up again
+     */
+    public Material getTransparent(Material mat)
+    {
+    	Material trMat = transparent.get(mat);
+    	if (trMat == null)
+    	{
+    		trMat = mat.getName() != null ? 
+    				setTransparent(mat.clone(), mat.getName()) : mat.clone();
+    		transparent.put(mat, trMat);
+    	}
+    	return trMat;
+    }
+    
+    /**
+     * We set this Geometry object's material to transparent. 
+     * It gets a copy of the cached variant of its own, for its alpha fall off, 
+     * from a pool: give it back with release() once the object is gone
      */
     public Material setTransparent(Geometry obj)
     {
-    	Material trMat = obj.getMaterial().clone();
-    	setTransparent(trMat);
+    	Material variant = getTransparent(obj.getMaterial());
+    	ArrayDeque<Material> pool = transparentPool.get(variant);
+    	Material trMat = pool != null && !pool.isEmpty() ? pool.pop() : variant.clone();
+    	trMat.getAdditionalRenderState().setAlphaFallOff(0f);
+    	pooledFrom.put(trMat, variant);
     	obj.setMaterial(trMat);
     	return trMat;
     }
     
+    /**
+     * Returns the material given by setTransparent(Geometry) to the pool
+     */
+    public void release(Geometry obj)
+    {
+    	Material trMat = obj.getMaterial();
+    	Material variant = pooledFrom.remove(trMat);
+    	if (variant == null)	return;
+    	ArrayDeque<Material> pool = transparentPool.get(variant);
+    	if (pool == null)
+    		transparentPool.put(variant, pool = new ArrayDeque<Material>());
+    	pool.push(trMat);
+    }
+    
 	/**
 	 * portion < alphaThresh will not be rendered.
 	 */
@@ -0,0 +1,98 @@
+package utils;
+
+import static chess.Position.*;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import chess.Piece;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.scene.Geometry;
+
+/**
+ * @author Jim Fan  (c) 2014
+ * Piece model prototypes: each j3o file is loaded once per model set, and
+ * every Piece made from a prototype shares its Mesh. Switching model sets
+ * only creates new Geometries, nothing is parsed again.
+ * preload() loads all the sets in the background at startup.
+ */
+public class ModelFactory
+{
+	// Model sets: Models/<Piece><set>.j3o, set from 1
+	public static final int MODEL_SETS = 2;
+
+	private final AssetManager assetManager;
+	// singleton instance
+	private static ModelFactory instance = null;
+
+	// Prototype of each piece type in each set, null until loaded.
+	// Read without locking by the render thread, loaded by either thread
+	private final AtomicReferenceArray<Geometry> models =
+			new AtomicReferenceArray<Geometry>((MODEL_SETS + 1) * PIECE_N);
+	private final Object loadLocks[] = new Object[(MODEL_SETS + 1) * PIECE_N];
+
+	private ModelFactory(AssetManager assetManager)
+	{
+		this.assetManager = assetManager;
+		for (int i = 0; i < loadLocks.length; i++)
+			loadLocks[i] = new Object();
+	}
+
+	/**
+	 * Should be called in the main class only once
+	 */
+	public static void setup(AssetManager assetManager)
+	{
+		if (instance == null)
+			instance = new ModelFactory(assetManager);
+	}
+
+	/**
+	 * Singleton factory pattern
+	 */
+	public static ModelFactory getInstance() {	return instance;	}
+
+	/**
+	 * The prototype of a piece in a model set, loaded on first use.
+	 * Don't attach it: make a Piece from it, which shares its mesh
+	 * @param modelSet 1 to MODEL_SETS
+	 */
+	public Geometry getModel(int piece, int modelSet)
+	{
+		int i = modelSet * PIECE_N + piece;
+		Geometry model = models.get(i);
+		if (model != null)	return model;
+		// Only one thread loads a model, the other one waits for it
+		synchronized (loadLocks[i])
+		{
+			model = models.get(i);
+			if (model == null)
+			{
+				model = (Geometry) assetManager.loadModel(
+						"Models/" + Piece.name(piece) + modelSet + ".j3o");
+				models.set(i, model);
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Loads every model of every set on a background thread
+	 */
+	public void preload()
+	{
+		Thread t = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (int set = 1; set <= MODEL_SETS; set++)
+					for (int piece = PAWN; piece <= KING; piece++)
+						getModel(piece, set);
+			}
+		}, "ModelFactory-preload");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+	}
+}